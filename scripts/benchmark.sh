@@ -0,0 +1,30 @@
+if [ "$#" -lt 1 ]; then
+  echo "Usage: $0 <file> [num_peers] [replication_degree]"
+  echo "Compares the backup and restore throughput of peers using platform threads and virtual threads."
+  echo "Must be run in the build directory, with rmiregistry running and the key stores in the same directory."
+  exit 1
+fi
+NUM_PEERS=${2:-3}
+REPLICATION_DEGREE=${3:-2}
+for VIRTUAL_THREADS in false true; do
+  echo "== sdis.virtualThreads=$VIRTUAL_THREADS"
+  rm -rf peer*/
+  PIDS=""
+  for ((i = 1; i <= NUM_PEERS; i++)); do
+    if [ "$i" -eq 1 ]; then
+      CONTACT=""
+    else
+      CONTACT="localhost 9001"
+    fi
+    # The original file is still in place, so the restore would otherwise copy it instead of fetching the chunks
+    java -Dsdis.virtualThreads=$VIRTUAL_THREADS -Dsdis.restore.localFirst=false protocol.Peer 1.0 $i rmi$i client.keys truststore 123456 localhost $((9000 + i)) $CONTACT > peer$i.log 2>&1 &
+    PIDS="$PIDS $!"
+    sleep 1
+  done
+  # Wait for the ring to stabilize
+  sleep 10
+  java client.Benchmark rmi1 1 "$1" "$REPLICATION_DEGREE"
+  kill $PIDS
+  wait $PIDS 2> /dev/null
+done
+rm -rf peer*/
@@ -1 +1 @@
-java protocol.Peer $1 $2 $3 $4 $5 $6 $7 $8 $9 $10
\ No newline at end of file
+java $JAVA_OPTS protocol.Peer $1 $2 $3 $4 $5 $6 $7 $8 $9 $10
\ No newline at end of file
@@ -3,7 +3,7 @@ if [ "$#" -lt 2 ]; then
   exit 1
 fi
 if [ "$#" -eq 3 ]; then
-  java protocol.Peer 1.0 $1 rmi$1 client.keys truststore 123456 localhost $2 localhost $3
+  java $JAVA_OPTS protocol.Peer 1.0 $1 rmi$1 client.keys truststore 123456 localhost $2 localhost $3
   exit 0
 fi
-java protocol.Peer 1.0 $1 rmi$1 client.keys truststore 123456 localhost $2
\ No newline at end of file
+java $JAVA_OPTS protocol.Peer 1.0 $1 rmi$1 client.keys truststore 123456 localhost $2
\ No newline at end of file
@@ -1 +1 @@
-java client.TestApp $1 $2 $3 $4
\ No newline at end of file
+java client.TestApp "$@"
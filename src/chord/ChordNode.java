@@ -1,21 +1,17 @@
 package chord;
 
-import jsse.ClientThread;
 import messages.FindSuccessorMessage;
+import messages.SuccessorMessage;
 import protocol.CheckReplicationDegreeThread;
 import protocol.Peer;
 import protocol.VerifyChunksThread;
 
-import java.io.IOException;
 import java.io.Serializable;
 import java.net.InetSocketAddress;
-import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
@@ -35,8 +31,6 @@ public class ChordNode implements Serializable {
     // AtomicReferenceArray is used to ensure thread safety
     public AtomicReferenceArray<ChordNodeInfo> fingerTable = new AtomicReferenceArray<>(keyBits);
 
-    public final transient ConcurrentHashMap<Long, Queue<ChordTask>> tasksMap = new ConcurrentHashMap<>();
-
     public ChordNode(InetSocketAddress address) {
         try {
             String input = address.getHostName() + ":" + address.getPort();
@@ -144,38 +138,51 @@ public class ChordNode implements Serializable {
         // Called when the node is joining a new Chord network
         initializeFingerTable();
 
-        long successorStart = getStartKey(0);
-
-        tasksMap.putIfAbsent(successorStart, new ConcurrentLinkedQueue<>());
-        tasksMap.get(successorStart).add(new ChordTask() {
-            @Override
-            public void performTask(ChordNodeInfo nodeInfo) {
-                startPeriodicTasks();
+        findSuccessor(contact, getStartKey(0))
+                .thenAccept(successorInfo -> {
+                    setSuccessorInfo(successorInfo);
+                    startPeriodicTasks();
 
-                // Update the new node's finger table
-                try {
+                    // Update the new node's finger table
                     for (int i = 1; i < keyBits; ++i) {
-                        long fingerStart = selfInfo.id + (long) Math.pow(2, i);
-                        FindSuccessorMessage message = new FindSuccessorMessage(Peer.version, Peer.id, fingerStart, Peer.address);
-                        ClientThread thread = new ClientThread(contact, message);
-                        Peer.executor.execute(thread);
+                        int index = i;
+                        findSuccessor(contact, getStartKey(i))
+                                .thenAccept(fingerInfo -> fingerTable.set(index, fingerInfo))
+                                .exceptionally(ex -> {
+                                    System.err.println("Error when updating new node's finger table: " + ex.getMessage());
+                                    return null;
+                                });
                     }
-                }
-                catch (IOException | GeneralSecurityException ex) {
-                    System.err.println("Error when updating new node's finger table: " + ex.getMessage());
-                }
-            }
-        });
+                })
+                .exceptionally(ex -> {
+                    System.err.println("Error when joining the network: " + ex.getMessage());
+                    return null;
+                });
+    }
 
-        FindSuccessorMessage message = new FindSuccessorMessage(Peer.version, Peer.id, successorStart, Peer.address);
+    /**
+     * Finds the node responsible for the specified key (its successor). If the key is between this node and its
+     * successor, no other node needs to be contacted; otherwise, the closest preceding node in the finger table is asked.
+     */
+    public CompletableFuture<ChordNodeInfo> findSuccessor(long key) {
+        ChordNodeInfo successorInfo = getSuccessorInfo();
 
-        try {
-            ClientThread thread = new ClientThread(contact, message);
-            Peer.executor.execute(thread);
-        }
-        catch (IOException | GeneralSecurityException ex) {
-            System.err.println("Error when sending FIND_SUCCESSOR message: " + ex.getMessage());
+        // key in (self.id, successor.id] -> successor is responsible for the key
+        if (isKeyBetween(key, selfInfo.id, successorInfo.id, false, true)) {
+            return CompletableFuture.completedFuture(successorInfo);
         }
+
+        return findSuccessor(getClosestPrecedingNode(key).address, key);
+    }
+
+    /**
+     * Asks the node at the specified address to find the successor of a key, by sending it a FIND_SUCCESSOR message.
+     */
+    public CompletableFuture<ChordNodeInfo> findSuccessor(InetSocketAddress address, long key) {
+        FindSuccessorMessage message = new FindSuccessorMessage(Peer.version, Peer.id, key, Peer.address);
+
+        return Peer.pendingRequests.send(address, message, SuccessorMessage.class)
+                .thenApply(reply -> reply.nodeInfo);
     }
 
     /**
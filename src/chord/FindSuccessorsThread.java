@@ -1,15 +1,13 @@
 package chord;
 
-import jsse.ClientThread;
 import messages.GetSuccessorMessage;
+import messages.NodeSuccessorMessage;
 import protocol.Peer;
 
-import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.security.GeneralSecurityException;
 
 public class FindSuccessorsThread extends Thread {
-    public static boolean procedureFinished = true;
+    public static volatile boolean procedureFinished = true;
 
     @Override
     public void run() {
@@ -24,16 +22,52 @@ public class FindSuccessorsThread extends Thread {
             procedureFinished = false;
 
             // Find out the successor of the last node in the successor deque
-            GetSuccessorMessage message = new GetSuccessorMessage(Peer.version, Peer.id, Peer.address);
             InetSocketAddress address = chordNode.getSuccessorInfo().address;
-            try {
-                if (!chordNode.successorDeque.isEmpty()) address = chordNode.successorDeque.getLast().address;
-                ClientThread thread = new ClientThread(address, message);
-                Peer.executor.execute(thread);
-            }
-            catch (IOException | GeneralSecurityException ex) {
-                System.err.println("Error when sending GET_SUCCESSOR message: " + ex.getMessage());
-            }
+            if (!chordNode.successorDeque.isEmpty()) address = chordNode.successorDeque.getLast().address;
+            requestSuccessor(address);
+        }
+    }
+
+    /**
+     * Asks the node at the specified address for its successor, which is added to the successor deque. The procedure
+     * continues with the new successor until the deque is full.
+     */
+    private static void requestSuccessor(InetSocketAddress address) {
+        GetSuccessorMessage message = new GetSuccessorMessage(Peer.version, Peer.id, Peer.address);
+
+        Peer.pendingRequests.send(address, message, NodeSuccessorMessage.class)
+                .thenAccept(reply -> handleSuccessor(reply.successorInfo))
+                .exceptionally(ex -> {
+                    System.err.println("Error when sending GET_SUCCESSOR message: " + ex.getMessage());
+                    procedureFinished = true;
+                    return null;
+                });
+    }
+
+    private static void handleSuccessor(ChordNodeInfo successorInfo) {
+        ChordNode chordNode = Peer.state.chordNode;
+
+        if (successorInfo.equals(chordNode.selfInfo)) {
+            // Traveled around the chord ring, stop the find successors procedure
+            procedureFinished = true;
+            return;
+        }
+
+        if (successorInfo.equals(chordNode.getSuccessorInfo())) {
+            // Finger table entries might not have been updated yet, stop procedure and try again later
+            procedureFinished = true;
+            return;
+        }
+
+        chordNode.successorDeque.add(successorInfo);
+        System.out.println("Deque: " + chordNode.successorDeque);
+
+        if (chordNode.successorDeque.size() < ChordNode.numSuccessors) {
+            // Deque is still not full, continue asking for successors
+            requestSuccessor(successorInfo.address);
+        }
+        else {
+            procedureFinished = true;
         }
     }
 }
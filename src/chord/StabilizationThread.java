@@ -4,6 +4,7 @@ import jsse.ClientThread;
 import messages.AliveMessage;
 import messages.GetPredecessorMessage;
 import messages.NotifyMessage;
+import messages.PredecessorMessage;
 import protocol.Peer;
 
 /**
@@ -21,16 +22,20 @@ public class StabilizationThread extends Thread {
 
         try {
             if (!chordNode.getSuccessorInfo().equals(chordNode.selfInfo)) {
-                ClientThread getPredecessorThread = new ClientThread(chordNode.getSuccessorInfo().address, getPredecessorMessage);
-                Peer.executor.execute(getPredecessorThread);
+                Peer.pendingRequests.send(chordNode.getSuccessorInfo().address, getPredecessorMessage, PredecessorMessage.class)
+                        .thenAccept(reply -> chordNode.stabilize(reply.predecessorInfo))
+                        .exceptionally(ex -> {
+                            System.err.println("Exception occurred when stabilizing: " + ex.getMessage());
+                            return null;
+                        });
 
                 ClientThread notifyThread = new ClientThread(chordNode.getSuccessorInfo().address, notifyMessage);
-                Peer.executor.execute(notifyThread);
+                Peer.dispatch(notifyThread);
 
                 AliveMessage aliveMessage = new AliveMessage(Peer.version, Peer.id);
                 if (chordNode.predecessorInfo != null) {
                     ClientThread aliveThread = new ClientThread(chordNode.predecessorInfo.address, aliveMessage);
-                    Peer.executor.execute(aliveThread);
+                    Peer.dispatch(aliveThread);
                 }
             }
             else {
@@ -0,0 +1,87 @@
+package client;
+
+import protocol.FileInformation;
+import protocol.JobStatus;
+import protocol.PeerState;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+
+/**
+ * Measures the throughput of the backup and restore of a file by a peer, as reported by the jobs of both operations.
+ * The backup job finishes when every chunk has reached the desired replication degree, and the restore job when every
+ * chunk has been written to the restored file. Should be run in the same directory as the peer, so that the restored
+ * file can be compared with the original. The peer must be started with sdis.restore.localFirst set to false, otherwise
+ * the restore copies the chunks from the original file instead of fetching them from the other peers.
+ */
+public class Benchmark {
+    // Maximum time to wait for each operation to finish (in milliseconds)
+    public static final long TIMEOUT = 300000;
+    public static final long POLL_INTERVAL = 50;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4) {
+            System.out.println("Usage: java Benchmark <peer_ap> <peer_id> <file> <replication_degree>");
+            return;
+        }
+
+        Registry registry = LocateRegistry.getRegistry();
+        ClientInterface stub = (ClientInterface) registry.lookup(args[0]);
+
+        File file = new File(args[2]);
+        String canonicalPath = file.getCanonicalPath();
+        int replicationDegree = Integer.parseInt(args[3]);
+
+        PeerState state = stub.state();
+        System.out.println("Virtual threads: " + (state.metrics.getOrDefault("executor.virtualThreads", 0L) == 1));
+
+        JobStatus backupStatus = waitForJob(stub, stub.backup(canonicalPath, replicationDegree));
+        printStatus(backupStatus);
+        if (backupStatus.state != JobStatus.State.COMPLETED) {
+            System.exit(1);
+        }
+
+        FileInformation information = stub.state().backupFilesMap.get(canonicalPath);
+        Path restoredPath = Paths.get("peer" + args[1], "restored", information.fileId, file.getName());
+        Files.deleteIfExists(restoredPath);
+
+        JobStatus restoreStatus = waitForJob(stub, stub.restore(canonicalPath));
+        printStatus(restoreStatus);
+
+        if (restoreStatus.state == JobStatus.State.COMPLETED && Files.mismatch(file.toPath(), restoredPath) != -1) {
+            System.err.println("The restored file is different from the original");
+        }
+
+        waitForJob(stub, stub.delete(canonicalPath));
+    }
+
+    private static JobStatus waitForJob(ClientInterface stub, long jobId) throws Exception {
+        long start = System.nanoTime();
+        JobStatus status = stub.jobStatus(jobId);
+
+        while (!status.isFinished()) {
+            if (System.nanoTime() - start > TIMEOUT * 1000000) {
+                System.err.println("Timed out waiting for job " + jobId + " to finish");
+                System.exit(1);
+            }
+
+            Thread.sleep(POLL_INTERVAL);
+            status = stub.jobStatus(jobId);
+        }
+
+        return status;
+    }
+
+    private static void printStatus(JobStatus status) {
+        System.out.printf("%s: %d bytes in %.3f s (%.2f MB/s), %d retries%n", status.operation, status.bytesDone,
+                status.elapsedMillis / 1000.0, status.getThroughput() / 1e6, status.retries);
+
+        if (status.error != null) {
+            System.err.println(status.error);
+        }
+    }
+}
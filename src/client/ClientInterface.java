@@ -1,14 +1,41 @@
 package client;
 
+import protocol.JobStatus;
 import protocol.PeerState;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 
 public interface ClientInterface extends Remote {
-    void backup(String filePath, int replicationDegree) throws RemoteException;
-    void restore(String filePath) throws RemoteException;
-    void delete(String filePath) throws RemoteException;
+    // The backup, restore and delete operations return the ID of a job, whose progress can be checked with jobStatus
+    long backup(String filePath, int replicationDegree) throws RemoteException;
+    long restore(String filePath) throws RemoteException;
+
+    /**
+     * Restores the file to the specified path of the peer's file system (which can be a named pipe), instead of the
+     * peer's restored directory.
+     */
+    long restore(String filePath, String targetPath) throws RemoteException;
+
+    /**
+     * Streams the restored file to a sink exported by the client, which is closed when the restore finishes.
+     */
+    long restore(String filePath, RestoreSink sink) throws RemoteException;
+
+    /**
+     * Restores length bytes of the file, starting at offset, fetching only the chunks that cover them. The range is
+     * cut short if it goes past the end of the file.
+     */
+    long restore(String filePath, long offset, long length) throws RemoteException;
+    long restore(String filePath, long offset, long length, String targetPath) throws RemoteException;
+    long restore(String filePath, long offset, long length, RestoreSink sink) throws RemoteException;
+    long delete(String filePath) throws RemoteException;
     void reclaim(long diskSpace) throws RemoteException;
     PeerState state() throws RemoteException;
+
+    /**
+     * Returns the progress of the job with the specified ID, or null if there is no such job (jobs are forgotten some
+     * time after finishing).
+     */
+    JobStatus jobStatus(long jobId) throws RemoteException;
 }
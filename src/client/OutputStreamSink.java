@@ -0,0 +1,53 @@
+package client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.rmi.RemoteException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * RestoreSink that writes the restored file to an output stream, such as the standard output of the TestApp.
+ */
+public class OutputStreamSink implements RestoreSink {
+    private final OutputStream stream;
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private volatile String error;
+
+    public OutputStreamSink(OutputStream stream) {
+        this.stream = stream;
+    }
+
+    @Override
+    public void write(byte[] data) throws RemoteException {
+        try {
+            stream.write(data);
+        }
+        catch (IOException ex) {
+            throw new RemoteException("Error when writing the restored file", ex);
+        }
+    }
+
+    @Override
+    public void close(String error) {
+        this.error = error;
+
+        try {
+            stream.flush();
+        }
+        catch (IOException ex) {
+            if (this.error == null) {
+                this.error = "Error when writing the restored file: " + ex.getMessage();
+            }
+        }
+
+        closed.countDown();
+    }
+
+    /**
+     * Waits until the restore finishes. Returns null if it was successful, or the reason why it failed.
+     */
+    public String awaitClose() throws InterruptedException {
+        closed.await();
+        return error;
+    }
+}
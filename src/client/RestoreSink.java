@@ -0,0 +1,18 @@
+package client;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Receives the contents of a file restored by a peer, in order, instead of the peer writing them to a file (see
+ * ClientInterface.restore). Implemented by the client and exported through RMI.
+ */
+public interface RestoreSink extends Remote {
+    void write(byte[] data) throws RemoteException;
+
+    /**
+     * Called once, after the last write, with null if the file was restored successfully or with the reason why the
+     * restore failed otherwise.
+     */
+    void close(String error) throws RemoteException;
+}
@@ -4,11 +4,16 @@ import chord.ChordNode;
 import protocol.ChunkIdentifier;
 import protocol.ChunkInformation;
 import protocol.FileInformation;
+import protocol.JobStatus;
 import protocol.PeerState;
 
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.net.InetSocketAddress;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
 
 import java.util.Map;
 import java.util.Set;
@@ -73,11 +78,47 @@ public class TestApp {
             System.out.print(" [" + startKey + ", " + endKey + "]");
             System.out.println(": " + chordNode.fingerTable.get(i));
         }
+
+        if (state.metrics != null && !state.metrics.isEmpty()) {
+            System.out.println();
+            System.out.println("Metrics:");
+
+            for (Map.Entry<String, Long> entry : state.metrics.entrySet()) {
+                System.out.println("\t- " + entry.getKey() + ": " + entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Streams the restored file to the standard output (the job ID and any error are printed to the standard error).
+     */
+    private static void restoreToOutput(ClientInterface stub, String filePath, long offset, long length) throws Exception {
+        OutputStreamSink sink = new OutputStreamSink(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        RestoreSink remoteSink = (RestoreSink) UnicastRemoteObject.exportObject(sink, 0);
+
+        try {
+            System.err.println("Job ID: " + stub.restore(filePath, offset, length, remoteSink));
+
+            String error = sink.awaitClose();
+            if (error != null) {
+                System.err.println(error);
+            }
+        }
+        finally {
+            UnicastRemoteObject.unexportObject(sink, true);
+        }
     }
 
     public static void main(String[] args) {
-        if (args.length < 2 || args.length > 4) {
-            System.out.println("Usage: java TestApp <peer_ap> <sub_protocol> <opnd_1> <opnd_2>");
+        if (args.length < 2 || args.length > 6) {
+            System.out.println("Usage: java TestApp <peer_ap> <sub_protocol> [<operands>]");
+            System.out.println("    BACKUP <file> <replication_degree>");
+            System.out.println("    RESTORE <file> [<offset> <length>] [<target>|-]");
+            System.out.println("    DELETE <file>");
+            System.out.println("    RECLAIM <max_disk_space_kb>");
+            System.out.println("    STATE");
+            System.out.println("    STATUS <job_id>");
+            System.out.println("A range restore writes <length> bytes from <offset>, and a target of - writes the restored file to stdout");
             System.out.println("To specify a host different than localhost for <peer_ap> use the format <host>/<object_name>");
             return;
         }
@@ -97,17 +138,32 @@ public class TestApp {
             switch (args[1]) {
                 case "BACKUP":
                     if (args.length == 4) {
-                        stub.backup(args[2], Integer.parseInt(args[3]));
+                        System.out.println("Job ID: " + stub.backup(args[2], Integer.parseInt(args[3])));
                     }
                     break;
                 case "RESTORE":
-                    if (args.length == 3) {
-                        stub.restore(args[2]);
+                    // RESTORE <file> [<offset> <length>] [<target>]
+                    long offset = 0, length = Long.MAX_VALUE;
+                    if (args.length >= 5) {
+                        offset = Long.parseLong(args[3]);
+                        length = Long.parseLong(args[4]);
+                    }
+
+                    String target = args.length == 4 ? args[3] : args.length == 6 ? args[5] : null;
+
+                    if (target == null) {
+                        System.out.println("Job ID: " + stub.restore(args[2], offset, length));
+                    }
+                    else if (target.equals("-")) {
+                        restoreToOutput(stub, args[2], offset, length);
+                    }
+                    else {
+                        System.out.println("Job ID: " + stub.restore(args[2], offset, length, target));
                     }
                     break;
                 case "DELETE":
                     if (args.length == 3) {
-                        stub.delete(args[2]);
+                        System.out.println("Job ID: " + stub.delete(args[2]));
                     }
                     break;
                 case "RECLAIM":
@@ -118,6 +174,12 @@ public class TestApp {
                 case "STATE":
                     printState(stub.state());
                     break;
+                case "STATUS":
+                    if (args.length == 3) {
+                        JobStatus status = stub.jobStatus(Long.parseLong(args[2]));
+                        System.out.println(status != null ? status : "Error: job " + args[2] + " doesn't exist");
+                    }
+                    break;
                 default:
                     System.out.println("Error: operation " + args[1] + " is not supported.");
                     break;
@@ -0,0 +1,119 @@
+package jsse;
+
+import utils.Metrics;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared pool of ByteBuffers used by the connections, to avoid allocating new buffers for every connection and every
+ * frame sent. Buffers are grouped in size classes (powers of two between MIN_CLASS_SIZE and MAX_CLASS_SIZE), so a
+ * buffer may be larger than requested. Larger requests are allocated without going through the pool.
+ *
+ * Every buffer obtained through acquire must be given back through release exactly once, and must not be used after
+ * that. Direct buffers are used if the sdis.directBuffers system property is set to true.
+ */
+public class BufferPool {
+    public static final int MIN_CLASS_SIZE = 1024;
+    public static final int MAX_CLASS_SIZE = 256 * 1024;
+
+    // Maximum number of idle buffers kept for each size class, the others are left to the garbage collector
+    public static final int MAX_BUFFERS_PER_CLASS = Integer.getInteger("sdis.bufferPool.maxBuffersPerClass", 64);
+
+    public static final boolean DIRECT = Boolean.getBoolean("sdis.directBuffers");
+
+    private static final int NUM_CLASSES = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE / MIN_CLASS_SIZE) + 1;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer>[] freeBuffers = createQueues();
+    private static final AtomicInteger[] freeBufferCounts = new AtomicInteger[NUM_CLASSES];
+
+    private static final LongAdder hits = Metrics.counter("bufferPool.hits");
+    private static final LongAdder misses = Metrics.counter("bufferPool.misses");
+    private static final LongAdder discarded = Metrics.counter("bufferPool.discarded");
+
+    static {
+        for (int i = 0; i < NUM_CLASSES; ++i) {
+            freeBufferCounts[i] = new AtomicInteger();
+        }
+
+        Metrics.gauge("bufferPool.idleBytes", BufferPool::getIdleBytes);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ConcurrentLinkedQueue<ByteBuffer>[] createQueues() {
+        ConcurrentLinkedQueue<ByteBuffer>[] queues = new ConcurrentLinkedQueue[NUM_CLASSES];
+
+        for (int i = 0; i < NUM_CLASSES; ++i) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+        }
+
+        return queues;
+    }
+
+    /**
+     * Returns a cleared buffer whose capacity is at least the specified size.
+     */
+    public static ByteBuffer acquire(int minimumCapacity) {
+        int sizeClass = getSizeClass(minimumCapacity);
+
+        if (sizeClass >= 0) {
+            ByteBuffer buffer = freeBuffers[sizeClass].poll();
+
+            if (buffer != null) {
+                freeBufferCounts[sizeClass].decrementAndGet();
+                hits.increment();
+                return buffer.clear();
+            }
+        }
+
+        misses.increment();
+        int capacity = sizeClass >= 0 ? MIN_CLASS_SIZE << sizeClass : minimumCapacity;
+        return DIRECT ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Gives a buffer back to the pool, so that it can be reused. Null buffers are ignored.
+     */
+    public static void release(ByteBuffer buffer) {
+        if (buffer == null) return;
+
+        int sizeClass = getSizeClass(buffer.capacity());
+
+        // Buffers that weren't allocated by the pool aren't kept
+        if (sizeClass < 0 || (MIN_CLASS_SIZE << sizeClass) != buffer.capacity() || buffer.isDirect() != DIRECT) {
+            discarded.increment();
+            return;
+        }
+
+        if (freeBufferCounts[sizeClass].incrementAndGet() > MAX_BUFFERS_PER_CLASS) {
+            freeBufferCounts[sizeClass].decrementAndGet();
+            discarded.increment();
+            return;
+        }
+
+        freeBuffers[sizeClass].offer(buffer);
+    }
+
+    private static long getIdleBytes() {
+        long idleBytes = 0;
+
+        for (int i = 0; i < NUM_CLASSES; ++i) {
+            idleBytes += (long) freeBufferCounts[i].get() * (MIN_CLASS_SIZE << i);
+        }
+
+        return idleBytes;
+    }
+
+    /**
+     * Returns the index of the smallest size class that can hold the specified number of bytes, or -1 if the size is
+     * larger than MAX_CLASS_SIZE.
+     */
+    private static int getSizeClass(int size) {
+        if (size > MAX_CLASS_SIZE) return -1;
+        if (size <= MIN_CLASS_SIZE) return 0;
+
+        return 32 - Integer.numberOfLeadingZeros((size - 1) / MIN_CLASS_SIZE);
+    }
+}
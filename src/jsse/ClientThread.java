@@ -3,54 +3,59 @@ package jsse;
 import chord.ChordNode;
 import chord.ChordNodeInfo;
 import messages.FindSuccessorMessage;
-import messages.GetChunkMessage;
 import messages.Message;
+import messages.MessageType;
+import messages.PutChunkMessage;
+import protocol.BackupPipeline;
 import protocol.ChunkIdentifier;
+import protocol.HandleReceivedMessageThread;
 import protocol.Peer;
-
-import javax.net.ssl.SSLEngine;
-import javax.net.ssl.SSLEngineResult;
+import utils.Metrics;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
 import java.security.GeneralSecurityException;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ClientThread extends SSLThread {
+    private static final LongAdder loopbackMessages = Metrics.counter("messages.loopback");
+
     private InetSocketAddress destinationAddress;
     private final Message message;
 
     public ClientThread(InetSocketAddress destinationAddress, Message message) throws GeneralSecurityException, IOException {
-        super("TLS", Peer.keyStorePath, Peer.trustStorePath, Peer.password);
+        super();
 
         this.destinationAddress = destinationAddress;
         this.message = message;
     }
 
+    public MessageType getMessageType() {
+        return message.getType();
+    }
+
     @Override
     public void run() {
-        SSLEngine engine = context.createSSLEngine(destinationAddress.getAddress().getHostAddress(), destinationAddress.getPort());
-        engine.setUseClientMode(true);
+        if (destinationAddress.equals(Peer.address)) {
+            // Messages sent by this peer to itself are handled directly, without going through a connection
+            loopbackMessages.increment();
+            new HandleReceivedMessageThread(message).run();
+            return;
+        }
 
         try {
-            SocketChannel socketChannel = SocketChannel.open();
-
-            socketChannel.connect(destinationAddress);
-            socketChannel.finishConnect();
-            socketChannel.configureBlocking(false);
-
-            doHandshake(socketChannel, engine);
-            sendMessage(socketChannel, engine);
+            sendMessage();
         }
         catch (IOException ex) {
             System.out.println("Exception in JSSE Client: " + ex.getMessage());
 
             ChordNode chordNode = Peer.state.chordNode;
 
+            // Connections to the peer that has died can't be reused
+            Peer.connectionPool.invalidateAll(destinationAddress);
+
             // We consider that the peer that has died no longer stores any chunks whose backup was initiated by this peer
             for (Map.Entry<ChunkIdentifier, Set<InetSocketAddress>> entry : Peer.state.chunkReplicationDegreeMap.entrySet()) {
                 entry.getValue().remove(destinationAddress);
@@ -81,21 +86,6 @@ public class ClientThread extends SSLThread {
                 }
             }
 
-            if (message instanceof GetChunkMessage) {
-                // If a GetChunkMessage failed, attempt to contact next peer that has stored the requested chunk
-                GetChunkMessage getChunkMessage = (GetChunkMessage) message;
-                ChunkIdentifier identifier = new ChunkIdentifier(getChunkMessage.fileId, getChunkMessage.chunkNumber);
-                Peer.state.chunkReplicationDegreeMap.get(identifier);
-
-                Optional<InetSocketAddress> optional = Peer.state.chunkReplicationDegreeMap.get(identifier).stream().findFirst();
-                if (optional.isPresent()) {
-                    destinationAddress = optional.get();
-                    System.out.println(destinationAddress);
-                    Peer.executor.execute(this);
-                    return;
-                }
-            }
-
             if (message instanceof FindSuccessorMessage) {
                 // If a FindSuccessorMessage failed, attempt to contact the previous finger
                 boolean resend = false;
@@ -109,43 +99,46 @@ public class ClientThread extends SSLThread {
                 }
 
                 if (resend) {
-                    Peer.executor.execute(this);
+                    Peer.dispatch(this);
+                    return;
+                }
+            }
+
+            // The message won't be resent, so a reply to it will never arrive
+            Peer.pendingRequests.fail(message, ex);
+
+            if (message instanceof PutChunkMessage) {
+                // If the chunk is being backed up by this peer, it leaves the window instead of waiting for its
+                // acknowledgements until they time out (CheckReplicationDegreeThread repairs it later)
+                PutChunkMessage putChunkMessage = (PutChunkMessage) message;
+                BackupPipeline pipeline = Peer.backupPipelines.get(putChunkMessage.fileId);
+                if (pipeline != null && putChunkMessage.initiatorAddress.equals(Peer.address)) {
+                    pipeline.release(putChunkMessage.chunkNumber);
                 }
             }
         }
     }
 
-    private void sendMessage(SocketChannel channel, SSLEngine engine) throws IOException {
-        byte[] messageBytes = message.build();
+    private void sendMessage() throws IOException {
+        Frame frame = new Frame(message);
 
-        ByteBuffer appData = ByteBuffer.wrap(messageBytes),
-                netData = ByteBuffer.allocate(Math.max(appData.capacity(), engine.getSession().getPacketBufferSize()));
+        while (true) {
+            Connection connection = Peer.connectionPool.acquire(destinationAddress, context);
 
-        while (appData.hasRemaining()) {
-            netData.clear();
-
-            // Attempt to encode message data
-            SSLEngineResult result = engine.wrap(appData, netData);
+            try {
+                connection.send(frame);
+                Peer.connectionPool.release(connection);
+                return;
+            }
+            catch (IOException ex) {
+                Peer.connectionPool.invalidate(connection);
 
-            switch (result.getStatus()) {
-                case OK:
-                    netData.flip();
-                    while (netData.hasRemaining()) {
-                        channel.write(netData);
-                    }
-                    break;
-                case BUFFER_OVERFLOW:
-                    netData = increaseBufferCapacity(netData, engine.getSession().getPacketBufferSize());
-                    break;
-                case BUFFER_UNDERFLOW:
-                    break;
-                case CLOSED:
-                    closeConnection(channel, engine);
-                    //System.out.println("Closing connection...");
-                    break;
+                // A pooled connection may have been closed by the other peer while it was idle, which doesn't mean
+                // that the peer has failed: in that case, try again with another connection
+                if (!connection.isReused()) {
+                    throw ex;
+                }
             }
         }
-
-        channel.shutdownOutput();
     }
 }
@@ -0,0 +1,551 @@
+package jsse;
+
+import messages.MessageType;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TLS connection between two peers that can carry any number of frames in both directions. The received data is
+ * processed by a SelectorThread, which requires the channel to be in non-blocking mode; only the handshake of the
+ * connections opened by this peer is performed in blocking mode.
+ */
+public class Connection {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    // Maximum time to wait for the other peer to receive data when its receive buffer is full (in milliseconds)
+    public static final long WRITE_TIMEOUT = 30000;
+
+    // Maximum number of frames extracted by each call to receiveAvailable, so that a single fast sender can't keep
+    // the selector thread from serving the other connections
+    public static final int MAX_FRAMES_PER_PASS = 16;
+
+    public final InetSocketAddress address;
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+
+    // netData holds encrypted data to be sent, peerNetData holds encrypted data received from the other peer and
+    // peerAppData holds decrypted data that hasn't been consumed yet (all of them are kept in write mode). They are
+    // taken from the BufferPool and given back when the connection is closed.
+    private ByteBuffer netData, peerNetData, peerAppData;
+    private boolean buffersReleased = false;
+
+    // The read lock protects peerNetData and peerAppData, the write lock protects netData. When both are needed, the
+    // read lock must be acquired first.
+    private final Object readLock = new Object();
+    private final Object writeLock = new Object();
+
+    // Used to wait until the channel can be written to again when the socket's send buffer is full
+    private volatile Selector writeSelector = null;
+
+    // Set by close, so that a thread waiting to write gives up instead of keeping the write lock
+    private volatile boolean closing = false;
+
+    private boolean handshakeStarted = false, handshakeFinished = false;
+
+    // Set when part of a handshake record couldn't be sent without blocking (it is left in netData, in read mode),
+    // and when receiveAvailable stopped before extracting every frame that had been received
+    private boolean handshakeDataPending = false;
+    private boolean moreAvailable = false;
+
+    private int framesSent = 0;
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    public Connection(SocketChannel channel, SSLEngine engine, InetSocketAddress address) {
+        this.channel = channel;
+        this.engine = engine;
+        this.address = address;
+
+        int packetBufferSize = engine.getSession().getPacketBufferSize();
+        int applicationBufferSize = engine.getSession().getApplicationBufferSize();
+
+        netData = BufferPool.acquire(packetBufferSize);
+        peerNetData = BufferPool.acquire(packetBufferSize);
+        // The application buffer must be able to hold a whole frame plus one decrypted record
+        peerAppData = BufferPool.acquire(Frame.HEADER_SIZE + Frame.MAX_PAYLOAD_SIZE + applicationBufferSize);
+    }
+
+    /**
+     * Opens a new connection to the specified address and performs the TLS handshake.
+     */
+    public static Connection open(SSLContext context, InetSocketAddress address) throws IOException {
+        SSLEngine engine = context.createSSLEngine(address.getAddress().getHostAddress(), address.getPort());
+        engine.setUseClientMode(true);
+
+        SocketChannel channel = SocketChannel.open(address);
+        Connection connection = new Connection(channel, engine, address);
+
+        try {
+            connection.doHandshake();
+        }
+        catch (IOException ex) {
+            channel.close();
+            connection.releaseBuffers();
+            throw ex;
+        }
+
+        return connection;
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen() && !engine.isOutboundDone() && !engine.isInboundDone();
+    }
+
+    public boolean isReused() {
+        return framesSent > 0;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public boolean isHandshakeFinished() {
+        return handshakeFinished;
+    }
+
+    public boolean isInboundDone() {
+        return engine.isInboundDone();
+    }
+
+    /**
+     * Returns true if the handshake can't continue until the channel can be written to again.
+     */
+    public boolean isHandshakeDataPending() {
+        return handshakeDataPending;
+    }
+
+    /**
+     * Returns true if the last call to receiveAvailable returned before every received frame had been extracted, in
+     * which case it should be called again even if no more data arrives.
+     */
+    public boolean hasMoreAvailable() {
+        return moreAvailable;
+    }
+
+    /**
+     * Registers the channel of this connection with a selector, to be notified when there is data to be read.
+     */
+    public SelectionKey register(Selector selector) throws IOException {
+        channel.configureBlocking(false);
+        return channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Performs as much of the TLS handshake as possible. Returns true once the handshake is finished, or false if the
+     * channel is in non-blocking mode and more data from the other peer is needed to continue, or the channel must be
+     * writable again (see isHandshakeDataPending).
+     */
+    public boolean doHandshake() throws IOException {
+        synchronized (readLock) {
+            checkBuffersAvailable();
+            return continueHandshake();
+        }
+    }
+
+    // Adapted from https://docs.oracle.com/en/java/javase/11/security/java-secure-socket-extension-jsse-reference-guide.html
+    private boolean continueHandshake() throws IOException {
+        if (!handshakeStarted) {
+            engine.beginHandshake();
+            handshakeStarted = true;
+        }
+
+        // The rest of a record that couldn't be sent before must be sent before anything else
+        if (handshakeDataPending) {
+            synchronized (writeLock) {
+                if (!writeHandshakeData()) return false;
+            }
+        }
+
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        SSLEngineResult result;
+
+        while (status != SSLEngineResult.HandshakeStatus.FINISHED &&
+            status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+
+            switch (status) {
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    // Data from peer needs to be received before the handshaking process can continue. Data that
+                    // was already received is processed first, since the peer may have sent several records at once
+                    peerNetData.flip();
+                    result = engine.unwrap(peerNetData, peerAppData);
+                    peerNetData.compact();
+
+                    status = result.getHandshakeStatus();
+
+                    switch (result.getStatus()) {
+                        case OK:
+                            break;
+                        case CLOSED:
+                            throw new SSLException("Connection closed during handshake");
+                        case BUFFER_OVERFLOW:
+                            peerAppData = increaseBufferCapacity(peerAppData, engine.getSession().getApplicationBufferSize());
+                            break;
+                        case BUFFER_UNDERFLOW:
+                            // Not enough data to process, read more from the channel
+                            peerNetData = increaseBufferCapacity(peerNetData, engine.getSession().getPacketBufferSize());
+                            int bytesRead = channel.read(peerNetData);
+
+                            if (bytesRead < 0) {
+                                throw new SSLException("Channel reached end-of-stream during handshake");
+                            }
+                            if (bytesRead == 0) {
+                                // No data available yet (non-blocking mode), continue when there is
+                                return false;
+                            }
+                            break;
+                    }
+                    break;
+                case NEED_WRAP:
+                    // Data needs to be sent to peer before the handshaking process can continue
+                    synchronized (writeLock) {
+                        netData.clear();
+                        result = engine.wrap(EMPTY, netData);
+                        status = result.getHandshakeStatus();
+
+                        switch (result.getStatus()) {
+                            case OK:
+                                netData.flip();
+                                if (!writeHandshakeData()) {
+                                    // Continue when the channel is writable, instead of blocking the selector thread
+                                    return false;
+                                }
+                                break;
+                            case CLOSED:
+                                netData.flip();
+                                writeHandshakeData();
+                                throw new SSLException("Connection closed during handshake");
+                            case BUFFER_OVERFLOW:
+                                // Buffer is not large enough, enlarge the network buffer
+                                netData = increaseBufferCapacity(netData, engine.getSession().getPacketBufferSize());
+                                break;
+                            case BUFFER_UNDERFLOW:
+                                break;
+                        }
+                    }
+                    break;
+                case NEED_TASK:
+                    // The results of one or more tasks are needed before the handshaking process can continue
+                    runDelegatedTasks();
+                    status = engine.getHandshakeStatus();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        handshakeFinished = true;
+        return true;
+    }
+
+    /**
+     * Writes the handshake data in netData (in read mode) without waiting for the channel to be writable. Returns
+     * false if part of it is still to be sent. Must be called while holding the write lock.
+     */
+    private boolean writeHandshakeData() throws IOException {
+        while (netData.hasRemaining()) {
+            if (channel.write(netData) == 0) break;
+        }
+
+        handshakeDataPending = netData.hasRemaining();
+        return !handshakeDataPending;
+    }
+
+    /**
+     * Sends a frame through this connection. Can be called by several threads at the same time.
+     */
+    public void send(Frame frame) throws IOException {
+        // The header and the payload are encrypted straight from their own buffers, without being copied to a new one
+        ByteBuffer[] appData = frame.toBuffers();
+
+        synchronized (writeLock) {
+            checkBuffersAvailable();
+
+            while (hasRemaining(appData)) {
+                // Once the connection is being closed the engine doesn't consume any more data
+                if (wrap(appData) == SSLEngineResult.Status.CLOSED) {
+                    throw new IOException("Connection to " + address + " is closed");
+                }
+            }
+
+            ++framesSent;
+            lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Returns the whole frames that can be received without blocking, up to MAX_FRAMES_PER_PASS (see
+     * hasMoreAvailable). If the other peer has closed the connection, isInboundDone will return true afterwards.
+     */
+    public List<Frame> receiveAvailable() throws IOException {
+        List<Frame> frames = new ArrayList<>();
+
+        synchronized (readLock) {
+            checkBuffersAvailable();
+
+            // Frames of an unknown type are counted as well, since they also take time to receive
+            int framesPolled = 0;
+            moreAvailable = false;
+
+            while (true) {
+                if (framesPolled == MAX_FRAMES_PER_PASS) {
+                    moreAvailable = true;
+                    break;
+                }
+
+                Frame frame = pollFrame();
+                if (frame != null) {
+                    ++framesPolled;
+                    if (frame.type != null) {
+                        frames.add(frame);
+                    }
+                }
+                else if (readAndUnwrap() <= 0) {
+                    break;
+                }
+            }
+        }
+
+        if (!frames.isEmpty()) {
+            lastUsed = System.currentTimeMillis();
+        }
+
+        return frames;
+    }
+
+    public void close() throws IOException {
+        engine.closeOutbound();
+
+        // A thread that is sending a frame stops at its next wrap, or as soon as it is woken up if it is waiting for
+        // the channel to be writable, so the write lock is released quickly
+        closing = true;
+        Selector selector = writeSelector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+
+        try {
+            synchronized (writeLock) {
+                while (!buffersReleased && !engine.isOutboundDone()) {
+                    wrap(EMPTY);
+                }
+            }
+        }
+        finally {
+            channel.close();
+
+            synchronized (writeLock) {
+                if (writeSelector != null) {
+                    writeSelector.close();
+                }
+            }
+
+            releaseBuffers();
+        }
+    }
+
+    /**
+     * Gives the buffers of this connection back to the pool. Since the channel is closed before this is called, any
+     * thread still using the connection will fail instead of touching the buffers afterwards.
+     */
+    private void releaseBuffers() {
+        synchronized (readLock) {
+            synchronized (writeLock) {
+                if (buffersReleased) return;
+                buffersReleased = true;
+
+                BufferPool.release(netData);
+                BufferPool.release(peerNetData);
+                BufferPool.release(peerAppData);
+                netData = peerNetData = peerAppData = null;
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the read lock or the write lock.
+     */
+    private void checkBuffersAvailable() throws IOException {
+        if (buffersReleased) {
+            throw new IOException("Connection to " + address + " is closed");
+        }
+    }
+
+    /**
+     * Extracts a whole frame from the decrypted data, if enough data has been received. Frames of an unknown type are
+     * returned with a null type, so that they can be skipped.
+     */
+    private Frame pollFrame() throws IOException {
+        Frame frame = null;
+        peerAppData.flip();
+
+        if (peerAppData.remaining() >= Frame.HEADER_SIZE) {
+            int length = peerAppData.getInt(peerAppData.position());
+
+            if (length < 0 || length > Frame.MAX_PAYLOAD_SIZE) {
+                throw new IOException("Received frame with invalid length: " + length);
+            }
+
+            if (peerAppData.remaining() >= Frame.HEADER_SIZE + length) {
+                peerAppData.getInt();
+                MessageType type = MessageType.fromCode(peerAppData.get());
+                long requestId = peerAppData.getLong();
+
+                // The payload is copied once, since peerAppData will be reused while the message is being handled.
+                // The message is then decoded as a view over this buffer, without any further copies.
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                payload.put(0, peerAppData, peerAppData.position(), length);
+                peerAppData.position(peerAppData.position() + length);
+
+                frame = new Frame(type, requestId, payload);
+            }
+        }
+
+        peerAppData.compact();
+        return frame;
+    }
+
+    /**
+     * Decrypts data received from the channel, reading from it when needed. Returns the number of decrypted bytes,
+     * which is 0 if there is no data available in non-blocking mode, or -1 if the connection was closed.
+     */
+    private int readAndUnwrap() throws IOException {
+        while (true) {
+            peerNetData.flip();
+            SSLEngineResult result = engine.unwrap(peerNetData, peerAppData);
+            peerNetData.compact();
+
+            switch (result.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    break;
+                case NEED_WRAP:
+                    // Post-handshake messages (such as key updates) may need an answer
+                    synchronized (writeLock) {
+                        wrap(EMPTY);
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            switch (result.getStatus()) {
+                case OK:
+                    if (result.bytesProduced() > 0) {
+                        return result.bytesProduced();
+                    }
+                    break;
+                case CLOSED:
+                    return -1;
+                case BUFFER_OVERFLOW:
+                    peerAppData = increaseBufferCapacity(peerAppData, engine.getSession().getApplicationBufferSize());
+                    break;
+                case BUFFER_UNDERFLOW:
+                    // Not enough data to decode a whole record, read more from the channel
+                    peerNetData = increaseBufferCapacity(peerNetData, engine.getSession().getPacketBufferSize());
+                    int bytesRead = channel.read(peerNetData);
+
+                    if (bytesRead <= 0) {
+                        return bytesRead;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Encodes data and writes it to the channel. Must be called while holding the write lock. Returns CLOSED once the
+     * connection is being closed, in which case no data is consumed.
+     */
+    private SSLEngineResult.Status wrap(ByteBuffer... appData) throws IOException {
+        netData.clear();
+        SSLEngineResult result = engine.wrap(appData, netData);
+
+        switch (result.getStatus()) {
+            case OK:
+            case CLOSED:
+                flush();
+                break;
+            case BUFFER_OVERFLOW:
+                netData = increaseBufferCapacity(netData, engine.getSession().getPacketBufferSize());
+                break;
+            case BUFFER_UNDERFLOW: // Should never happen since we are calling wrap
+                break;
+        }
+
+        return result.getStatus();
+    }
+
+    private void flush() throws IOException {
+        netData.flip();
+        while (netData.hasRemaining()) {
+            if (channel.write(netData) == 0 && !channel.isBlocking()) {
+                waitUntilWritable();
+            }
+        }
+    }
+
+    /**
+     * Waits until the socket's send buffer has space again (non-blocking mode). Must be called while holding the
+     * write lock.
+     */
+    private void waitUntilWritable() throws IOException {
+        if (writeSelector == null) {
+            writeSelector = Selector.open();
+            channel.register(writeSelector, SelectionKey.OP_WRITE);
+        }
+
+        if (writeSelector.select(WRITE_TIMEOUT) == 0) {
+            if (closing) {
+                throw new IOException("Connection to " + address + " is closed");
+            }
+            throw new IOException("Timed out when sending data to " + address);
+        }
+
+        writeSelector.selectedKeys().clear();
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) return true;
+        }
+
+        return false;
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Returns a buffer with the same contents (in write mode) as the given buffer, but whose free space is at least
+     * the specified size. If a new buffer is needed, the given one is given back to the pool.
+     */
+    private static ByteBuffer increaseBufferCapacity(ByteBuffer buffer, int minimumFreeSpace) {
+        if (buffer.remaining() >= minimumFreeSpace) {
+            return buffer;
+        }
+
+        ByteBuffer newBuffer = BufferPool.acquire(Math.max(buffer.position() + minimumFreeSpace, buffer.capacity() * 2));
+        buffer.flip();
+        newBuffer.put(buffer);
+        BufferPool.release(buffer);
+
+        return newBuffer;
+    }
+}
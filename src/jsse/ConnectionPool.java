@@ -0,0 +1,131 @@
+package jsse;
+
+import protocol.Peer;
+
+import javax.net.ssl.SSLContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the connections to other peers open so that they can be reused to send several messages, avoiding a TLS
+ * handshake per message. At most MAX_CONNECTIONS_PER_PEER connections to the same peer are used at the same time,
+ * and connections that haven't been used for IDLE_TIMEOUT milliseconds are closed.
+ */
+public class ConnectionPool {
+    public static final int MAX_CONNECTIONS_PER_PEER = 4;
+    public static final long IDLE_TIMEOUT = 30000;
+    public static final long ACQUIRE_TIMEOUT = 30000;
+
+    // Idle connections are used in LIFO order, so that the least recently used ones are the first to be evicted
+    private final ConcurrentHashMap<InetSocketAddress, Deque<Connection>> idleConnectionsMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<InetSocketAddress, Semaphore> permitsMap = new ConcurrentHashMap<>();
+
+    /**
+     * Obtains a connection to the specified address, reusing an idle connection if possible. If the maximum number of
+     * connections to that peer is in use, waits until one of them is released. Every connection obtained through this
+     * method must later be either released or invalidated.
+     */
+    public Connection acquire(InetSocketAddress address, SSLContext context) throws IOException {
+        Semaphore permits = permitsMap.computeIfAbsent(address, k -> new Semaphore(MAX_CONNECTIONS_PER_PEER));
+
+        try {
+            if (!permits.tryAcquire(ACQUIRE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a connection to " + address);
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " + address);
+        }
+
+        Deque<Connection> idleConnections = idleConnectionsMap.get(address);
+        if (idleConnections != null) {
+            Connection connection;
+
+            while ((connection = idleConnections.pollFirst()) != null) {
+                if (connection.isOpen()) {
+                    return connection;
+                }
+
+                closeQuietly(connection);
+            }
+        }
+
+        try {
+            Connection connection = Connection.open(context, address);
+
+            // The other peer may also send frames through this connection
+            Peer.serverThread.addConnection(connection);
+            return connection;
+        }
+        catch (IOException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool after it has been used successfully.
+     */
+    public void release(Connection connection) {
+        idleConnectionsMap.computeIfAbsent(connection.address, k -> new ConcurrentLinkedDeque<>()).addFirst(connection);
+        permitsMap.get(connection.address).release();
+    }
+
+    /**
+     * Closes a connection that has failed, instead of returning it to the pool.
+     */
+    public void invalidate(Connection connection) {
+        closeQuietly(connection);
+        permitsMap.get(connection.address).release();
+    }
+
+    /**
+     * Closes all idle connections to a peer, for example after that peer is considered to have failed.
+     */
+    public void invalidateAll(InetSocketAddress address) {
+        Deque<Connection> idleConnections = idleConnectionsMap.get(address);
+        if (idleConnections == null) return;
+
+        Connection connection;
+        while ((connection = idleConnections.pollFirst()) != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Closes the connections that have been idle for longer than IDLE_TIMEOUT. Executed periodically.
+     */
+    public void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+
+        for (Deque<Connection> idleConnections : idleConnectionsMap.values()) {
+            Iterator<Connection> iterator = idleConnections.descendingIterator();
+
+            while (iterator.hasNext()) {
+                Connection connection = iterator.next();
+
+                // Only the thread that manages to remove the connection from the deque may close it
+                if (now - connection.getLastUsed() > IDLE_TIMEOUT && idleConnections.removeLastOccurrence(connection)) {
+                    closeQuietly(connection);
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        }
+        catch (IOException ex) {
+            System.out.println("Exception when closing connection to " + connection.address + ": " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package jsse;
+
+import messages.Message;
+import messages.MessageCodec;
+import messages.MessageType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Unit of data sent through a Connection. Each frame starts with the length of its payload (4 bytes), the code of the
+ * type of the message it carries (1 byte) and the ID of the request the message belongs to (8 bytes), followed by the
+ * payload. Frames can be sent in both directions of a connection, and any number of them can be sent through the same
+ * connection.
+ */
+public class Frame {
+    public static final int HEADER_SIZE = Integer.BYTES + 1 + Long.BYTES;
+    public static final int MAX_PAYLOAD_SIZE = Message.MAX_SIZE;
+
+    public final MessageType type;
+    public final long requestId;
+
+    // The payload may be made of several buffers (for example, the header and the body of a message), which are only
+    // joined when the frame is encrypted. Received frames always have a single buffer.
+    private final ByteBuffer[] payload;
+
+    public Frame(MessageType type, long requestId, ByteBuffer... payload) {
+        this.type = type;
+        this.requestId = requestId;
+        this.payload = payload;
+    }
+
+    public Frame(Message message) {
+        this(message.getType(), message.requestId, MessageCodec.encodeHeader(message), message.body.duplicate());
+    }
+
+    /**
+     * Returns the payload of a received frame, from its position to its limit.
+     */
+    public ByteBuffer getPayload() {
+        return payload[0];
+    }
+
+    public int getPayloadSize() {
+        int size = 0;
+
+        for (ByteBuffer buffer : payload) {
+            size += buffer.remaining();
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns the buffers to be sent for this frame: its header followed by the payload. The payload isn't copied, and
+     * new views over it are returned on every call, so that the same frame can be sent again if sending it fails.
+     */
+    public ByteBuffer[] toBuffers() {
+        ByteBuffer[] buffers = new ByteBuffer[payload.length + 1];
+
+        buffers[0] = ByteBuffer.allocate(HEADER_SIZE).putInt(getPayloadSize()).put(type.code).putLong(requestId).flip();
+        for (int i = 0; i < payload.length; ++i) {
+            buffers[i + 1] = payload[i].duplicate();
+        }
+
+        return buffers;
+    }
+}
@@ -0,0 +1,86 @@
+package jsse;
+
+import messages.Message;
+import protocol.Peer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Matches replies to the requests that originated them. Each request is given a unique ID, which is sent in the frame
+ * header and copied to its reply (requests may be forwarded through other peers before being answered, keeping the
+ * same ID). The reply completes the future returned when sending the request, unless the request timed out first.
+ */
+public class PendingRequests {
+    // Default time to wait for a reply (in milliseconds)
+    public static final long DEFAULT_TIMEOUT = 10000;
+
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final ConcurrentHashMap<Long, PendingRequest> requestsMap = new ConcurrentHashMap<>();
+
+    private static class PendingRequest {
+        final Message request;
+        final CompletableFuture<Message> future = new CompletableFuture<>();
+
+        PendingRequest(Message request) {
+            this.request = request;
+        }
+    }
+
+    public <T extends Message> CompletableFuture<T> send(InetSocketAddress address, Message request, Class<T> replyType) {
+        return send(address, request, replyType, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Sends a request to the specified address. The returned future is completed with the reply, or exceptionally if
+     * the request couldn't be sent, the reply isn't of the expected type or no reply arrives within the timeout (in
+     * milliseconds). A message object must not be sent again while one of its requests is still pending.
+     */
+    public <T extends Message> CompletableFuture<T> send(InetSocketAddress address, Message request, Class<T> replyType, long timeout) {
+        long requestId = nextId.getAndIncrement();
+        request.requestId = requestId;
+
+        PendingRequest pending = new PendingRequest(request);
+        CompletableFuture<Message> future = pending.future;
+        requestsMap.put(requestId, pending);
+
+        // The entry is removed however the request finishes, so that requests that are never answered don't leak
+        future.orTimeout(timeout, TimeUnit.MILLISECONDS).whenComplete((reply, ex) -> requestsMap.remove(requestId, pending));
+
+        try {
+            ClientThread thread = new ClientThread(address, request);
+            Peer.dispatch(thread);
+        }
+        catch (IOException | GeneralSecurityException ex) {
+            future.completeExceptionally(ex);
+        }
+
+        return future.thenApply(replyType::cast);
+    }
+
+    /**
+     * Completes the request with the specified ID with a reply. Returns false if there is no such pending request
+     * (for example, if it has already timed out).
+     */
+    public boolean complete(long requestId, Message reply) {
+        PendingRequest pending = requestsMap.remove(requestId);
+        return pending != null && pending.future.complete(reply);
+    }
+
+    /**
+     * Completes a request exceptionally, for example when it couldn't be sent. Does nothing if the message isn't a
+     * pending request of this peer (forwarded requests keep the ID given by the peer that initiated them).
+     */
+    public void fail(Message request, Throwable cause) {
+        PendingRequest pending = requestsMap.get(request.requestId);
+
+        if (pending != null && pending.request == request && requestsMap.remove(request.requestId, pending)) {
+            pending.future.completeExceptionally(cause);
+        }
+    }
+}
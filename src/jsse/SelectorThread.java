@@ -0,0 +1,130 @@
+package jsse;
+
+import protocol.HandleReceivedMessageThread;
+import protocol.Peer;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Thread that serves many connections at once using a Selector. For each connection with data available, it advances
+ * the TLS handshake or decrypts the received data, and whole frames are handed to HandleReceivedMessageThreads.
+ * A slow or stalled peer therefore never blocks the other connections. Both the connections accepted by the
+ * ServerThread and the ones opened by this peer are served, since frames can be sent in both directions.
+ */
+public class SelectorThread extends Thread {
+    private final Selector selector;
+    private final Queue<Connection> newConnections = new ConcurrentLinkedQueue<>();
+
+    // Connections that had more frames available than are handled in a single pass, served again in the next one
+    private final Set<SelectionKey> pendingKeys = new LinkedHashSet<>();
+
+    public SelectorThread() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * Adds a connection to the ones served by this thread. Can be called from any thread.
+     */
+    public void addConnection(Connection connection) {
+        newConnections.add(connection);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                // Connections with pending frames are served again right away, after the others that are ready
+                if (pendingKeys.isEmpty()) {
+                    selector.select();
+                }
+                else {
+                    selector.selectNow();
+                }
+            }
+            catch (IOException ex) {
+                System.out.println("Exception in JSSE Server: " + ex.getMessage());
+                continue;
+            }
+
+            // Connections can only be registered by the thread that is using the selector
+            Connection connection;
+            while ((connection = newConnections.poll()) != null) {
+                try {
+                    SelectionKey key = connection.register(selector);
+
+                    // Data may have arrived before the connection was registered
+                    processConnection(key);
+                }
+                catch (IOException ex) {
+                    System.out.println("Exception in JSSE Server: " + ex.getMessage());
+                    closeConnection(connection);
+                }
+            }
+
+            Set<SelectionKey> keys = new LinkedHashSet<>(selector.selectedKeys());
+            selector.selectedKeys().clear();
+            keys.addAll(pendingKeys);
+            pendingKeys.clear();
+
+            for (SelectionKey key : keys) {
+                if (key.isValid()) {
+                    processConnection(key);
+                }
+            }
+        }
+    }
+
+    private void processConnection(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+
+        try {
+            if (!connection.isHandshakeFinished()) {
+                boolean finished = connection.doHandshake();
+
+                // While part of the handshake can't be sent, wait for the channel to be writable instead of blocking
+                key.interestOps(connection.isHandshakeDataPending() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+
+                if (!finished) {
+                    // Wait for more data from the other peer
+                    return;
+                }
+            }
+
+            for (Frame frame : connection.receiveAvailable()) {
+                //System.out.println("Received " + frame.type + " message with length " + frame.getPayloadSize() + " bytes.");
+                HandleReceivedMessageThread thread = new HandleReceivedMessageThread(frame, connection);
+                Peer.dispatch(frame.type, thread);
+            }
+
+            if (connection.isInboundDone()) {
+                // The other peer has closed the connection
+                key.cancel();
+                closeConnection(connection);
+            }
+            else if (connection.hasMoreAvailable()) {
+                pendingKeys.add(key);
+            }
+        }
+        catch (IOException ex) {
+            System.out.println("Exception in JSSE Server: " + ex.getMessage());
+            key.cancel();
+            closeConnection(connection);
+        }
+    }
+
+    private static void closeConnection(Connection connection) {
+        try {
+            connection.close();
+        }
+        catch (IOException ex) {
+            System.out.println("Exception when closing connection: " + ex.getMessage());
+        }
+    }
+}
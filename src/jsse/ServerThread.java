@@ -1,50 +1,59 @@
 package jsse;
 
-import messages.Message;
-import protocol.HandleReceivedMessageThread;
 import protocol.Peer;
 
 import javax.net.ssl.SSLEngine;
-import javax.net.ssl.SSLEngineResult;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.SocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.security.GeneralSecurityException;
-
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread that accepts the connections made by other peers. Accepting is all this thread does: the connections are
+ * distributed among several SelectorThreads (one per processor), which perform the handshakes and receive the frames.
+ * The connections opened by this peer are also handed to the selector threads, to receive frames sent back by the
+ * other peer.
+ */
 public class ServerThread extends SSLThread {
+    public static final int NUM_SELECTOR_THREADS = Runtime.getRuntime().availableProcessors();
+
     private final ServerSocketChannel serverSocketChannel;
+    private final SelectorThread[] selectorThreads = new SelectorThread[NUM_SELECTOR_THREADS];
+    private final AtomicInteger nextSelectorThread = new AtomicInteger(0);
 
     public ServerThread() throws GeneralSecurityException, IOException {
-        super("TLS", Peer.keyStorePath, Peer.trustStorePath, Peer.password);
+        super();
 
         serverSocketChannel = ServerSocketChannel.open();
         serverSocketChannel.socket().bind(Peer.address);
+
+        for (int i = 0; i < NUM_SELECTOR_THREADS; ++i) {
+            selectorThreads[i] = new SelectorThread();
+        }
     }
 
     @Override
     public void run() {
         System.out.println("Starting server, will listen at: " + Peer.address.getAddress().getHostAddress() + ":" + Peer.address.getPort());
 
+        for (SelectorThread selectorThread : selectorThreads) {
+            selectorThread.start();
+        }
+
         while (true) {
             try {
-                SSLEngine engine = context.createSSLEngine();
-                engine.setUseClientMode(false);
-
                 SocketChannel socketChannel = serverSocketChannel.accept();
                 //System.out.println("Accepted new connection.");
 
-                doHandshake(socketChannel, engine);
-                byte[] messageBytes = receiveMessage(socketChannel, engine);
+                SSLEngine engine = context.createSSLEngine();
+                engine.setUseClientMode(false);
 
-                //System.out.println("Received message with length " + messageBytes.length + " bytes.");
-                closeConnection(socketChannel, engine);
+                Connection connection = new Connection(socketChannel, engine, (InetSocketAddress) socketChannel.getRemoteAddress());
 
-                HandleReceivedMessageThread thread = new HandleReceivedMessageThread(messageBytes);
-                Peer.executor.execute(thread);
+                addConnection(connection);
             }
             catch (IOException ex) {
                 System.out.println("Exception in JSSE Server: " + ex.getMessage());
@@ -52,42 +61,12 @@ public class ServerThread extends SSLThread {
         }
     }
 
-    private byte[] receiveMessage(SocketChannel channel, SSLEngine engine) throws IOException {
-        ByteBuffer messageBuffer = ByteBuffer.allocate(Message.MAX_SIZE);
-        ByteBuffer peerAppData = ByteBuffer.allocate(Message.MAX_SIZE),
-                peerNetData = ByteBuffer.allocate(Message.MAX_SIZE);
-
-        while (channel.read(peerNetData) >= 0) {
-            peerNetData.flip();
-
-            while (peerNetData.hasRemaining()) {
-                // Attempts to decode message data
-                SSLEngineResult result = engine.unwrap(peerNetData, peerAppData);
-
-                switch (result.getStatus()) {
-                    case OK:
-                        peerAppData.flip();
-                        messageBuffer.put(peerAppData);
-                        peerAppData.clear();
-                        break;
-                    case BUFFER_UNDERFLOW:
-                        break;
-                    case BUFFER_OVERFLOW:
-                        peerNetData = increaseBufferCapacity(peerNetData, engine.getSession().getPacketBufferSize());
-                        break;
-                    case CLOSED:
-                        closeConnection(channel, engine);
-                        break;
-                }
-            }
-
-            peerNetData.clear();
-        }
-
-        int bytesRead = messageBuffer.position();
-        byte[] messageBytes = new byte[bytesRead];
-        System.arraycopy(messageBuffer.array(), 0, messageBytes, 0, bytesRead);
-
-        return messageBytes;
+    /**
+     * Hands a connection to one of the selector threads, which will receive the frames sent through it. Connections
+     * are distributed among the selector threads in a round-robin fashion.
+     */
+    public void addConnection(Connection connection) {
+        int index = Math.floorMod(nextSelectorThread.getAndIncrement(), NUM_SELECTOR_THREADS);
+        selectorThreads[index].addConnection(connection);
     }
 }
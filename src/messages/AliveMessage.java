@@ -7,6 +7,11 @@ public class AliveMessage extends Message {
         super(protocolVersion, peerId);
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.ALIVE;
+    }
+
     @Override
     public String buildHeader() {
         String[] components = { protocolVersion, name, String.valueOf(senderId) };
@@ -1,18 +1,25 @@
 package messages;
 
+import java.nio.ByteBuffer;
+
 public class ChunkMessage extends Message {
     public static final String name = "CHUNK";
 
     public final String fileId;
     public final int chunkNumber;
 
-    public ChunkMessage(String protocolVersion, int senderId, String fileId, int chunkNumber, byte[] body) {
+    public ChunkMessage(String protocolVersion, int senderId, String fileId, int chunkNumber, ByteBuffer body) {
         super(protocolVersion, senderId, body);
 
         this.fileId = fileId;
         this.chunkNumber = chunkNumber;
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.CHUNK;
+    }
+
     @Override
     public String buildHeader() {
         String[] components = { protocolVersion, name, String.valueOf(senderId), fileId, String.valueOf(chunkNumber) };
@@ -20,7 +27,23 @@ public class ChunkMessage extends Message {
         return String.join(" ", components);
     }
 
-    public static ChunkMessage parse(String header, byte[] body) {
+    @Override
+    protected void encodeFields(ByteBuffer buffer) {
+        MessageCodec.putFileId(buffer, fileId);
+        buffer.putInt(chunkNumber);
+    }
+
+    static ChunkMessage decodeFields(String protocolVersion, int senderId, ByteBuffer buffer) {
+        String fileId = MessageCodec.getFileId(buffer);
+        int chunkNumber = buffer.getInt();
+
+        // The rest of the payload is the body
+        ByteBuffer body = buffer.slice();
+
+        return new ChunkMessage(protocolVersion, senderId, fileId, chunkNumber, body);
+    }
+
+    public static ChunkMessage parse(String header, ByteBuffer body) {
         // <Version> CHUNK <SenderId> <FileId> <ChunkNo> <CRLF><CRLF><Body>
         String[] headerComponents = header.split(" ");
 
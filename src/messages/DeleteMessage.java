@@ -1,5 +1,7 @@
 package messages;
 
+import java.nio.ByteBuffer;
+
 public class DeleteMessage extends Message {
     public static final String name = "DELETE";
 
@@ -10,6 +12,11 @@ public class DeleteMessage extends Message {
         this.fileId = fileId;
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.DELETE;
+    }
+
     @Override
     public String buildHeader() {
         String[] components = { protocolVersion, name, String.valueOf(senderId), fileId };
@@ -17,6 +24,17 @@ public class DeleteMessage extends Message {
         return String.join(" ", components);
     }
 
+    @Override
+    protected void encodeFields(ByteBuffer buffer) {
+        MessageCodec.putFileId(buffer, fileId);
+    }
+
+    static DeleteMessage decodeFields(String protocolVersion, int senderId, ByteBuffer buffer) {
+        String fileId = MessageCodec.getFileId(buffer);
+
+        return new DeleteMessage(protocolVersion, senderId, fileId);
+    }
+
     public static DeleteMessage parse(String header) {
         // <Version> DELETE <SenderId> <FileId> <CRLF><CRLF><Body>
         String[] headerComponents = header.split(" ");
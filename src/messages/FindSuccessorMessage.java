@@ -1,6 +1,8 @@
 package messages;
 
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 public class FindSuccessorMessage extends Message {
     public static final String name = "FIND_SUCCESSOR";
@@ -15,6 +17,11 @@ public class FindSuccessorMessage extends Message {
         this.initiatorAddress = initiatorAddress;
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.FIND_SUCCESSOR;
+    }
+
     @Override
     public String buildHeader() {
         String[] components = { protocolVersion, name, String.valueOf(senderId), String.valueOf(key),
@@ -23,7 +30,20 @@ public class FindSuccessorMessage extends Message {
         return String.join(" ", components);
     }
 
-    public static FindSuccessorMessage parse(String header, byte[] body) {
+    @Override
+    protected void encodeFields(ByteBuffer buffer) {
+        buffer.putLong(key);
+        MessageCodec.putAddress(buffer, initiatorAddress);
+    }
+
+    static FindSuccessorMessage decodeFields(String protocolVersion, int senderId, ByteBuffer buffer) throws UnknownHostException {
+        long key = buffer.getLong();
+        InetSocketAddress initiatorAddress = MessageCodec.getAddress(buffer);
+
+        return new FindSuccessorMessage(protocolVersion, senderId, key, initiatorAddress);
+    }
+
+    public static FindSuccessorMessage parse(String header, ByteBuffer body) {
         // <Version> FIND_SUCCESSOR <SenderId> <Key> <InitiatorHostname> <InitiatorPort> <CRLF><CRLF><Body>
         String[] headerComponents = header.split(" ");
 
@@ -6,6 +6,8 @@ import protocol.Peer;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 
@@ -24,6 +26,11 @@ public class GetChunkMessage extends Message {
         this.initiatorAddress = initiatorAddress;
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.GET_CHUNK;
+    }
+
     @Override
     public String buildHeader() {
         String[] components = { protocolVersion, name, String.valueOf(senderId), fileId, String.valueOf(chunkNumber),
@@ -32,6 +39,21 @@ public class GetChunkMessage extends Message {
         return String.join(" ", components);
     }
 
+    @Override
+    protected void encodeFields(ByteBuffer buffer) {
+        MessageCodec.putFileId(buffer, fileId);
+        buffer.putInt(chunkNumber);
+        MessageCodec.putAddress(buffer, initiatorAddress);
+    }
+
+    static GetChunkMessage decodeFields(String protocolVersion, int senderId, ByteBuffer buffer) throws UnknownHostException {
+        String fileId = MessageCodec.getFileId(buffer);
+        int chunkNumber = buffer.getInt();
+        InetSocketAddress initiatorAddress = MessageCodec.getAddress(buffer);
+
+        return new GetChunkMessage(protocolVersion, senderId, fileId, chunkNumber, initiatorAddress);
+    }
+
     public static GetChunkMessage parse(String header) {
         // <Version> GET_CHUNK <SenderId> <FileId> <ChunkNo> <InitiatorHostname> <InitiatorPort> <CRLF><CRLF><Body>
         String[] headerComponents = header.split(" ");
@@ -75,7 +97,7 @@ public class GetChunkMessage extends Message {
         senderId = Peer.id;
         try {
             ClientThread thread = new ClientThread(chordNode.getSuccessorInfo().address, this);
-            Peer.executor.execute(thread);
+            Peer.dispatch(thread);
         }
         catch (IOException | GeneralSecurityException ex) {
             System.err.println("Error when forwarding PUT_CHUNK message: " + ex.getMessage());
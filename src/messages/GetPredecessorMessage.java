@@ -3,6 +3,8 @@ package messages;
 import chord.ChordNodeInfo;
 
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 public class GetPredecessorMessage extends Message {
     public static final String name = "GET_PREDECESSOR";
@@ -14,6 +16,11 @@ public class GetPredecessorMessage extends Message {
         this.nodeInfo = nodeInfo;
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.GET_PREDECESSOR;
+    }
+
     @Override
     public String buildHeader() {
         String[] components = { protocolVersion, name, String.valueOf(senderId), String.valueOf(nodeInfo.id),
@@ -22,7 +29,18 @@ public class GetPredecessorMessage extends Message {
         return String.join(" ", components);
     }
 
-    public static GetPredecessorMessage parse(String header, byte[] body) {
+    @Override
+    protected void encodeFields(ByteBuffer buffer) {
+        MessageCodec.putNodeInfo(buffer, nodeInfo);
+    }
+
+    static GetPredecessorMessage decodeFields(String protocolVersion, int senderId, ByteBuffer buffer) throws UnknownHostException {
+        ChordNodeInfo nodeInfo = MessageCodec.getNodeInfo(buffer);
+
+        return new GetPredecessorMessage(protocolVersion, senderId, nodeInfo);
+    }
+
+    public static GetPredecessorMessage parse(String header, ByteBuffer body) {
         // <Version> GET_PREDECESSOR <SenderId> <InitiatorKey> <InitiatorHostname> <InitiatorPort> <CRLF><CRLF><Body>
         String[] headerComponents = header.split(" ");
 
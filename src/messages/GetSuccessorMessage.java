@@ -1,6 +1,8 @@
 package messages;
 
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 public class GetSuccessorMessage extends Message {
     public static final String name = "GET_SUCCESSOR";
@@ -12,6 +14,11 @@ public class GetSuccessorMessage extends Message {
         this.initiatorAddress = initiatorAddress;
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.GET_SUCCESSOR;
+    }
+
     @Override
     public String buildHeader() {
         String[] components = { protocolVersion, name, String.valueOf(senderId),
@@ -20,6 +27,17 @@ public class GetSuccessorMessage extends Message {
         return String.join(" ", components);
     }
 
+    @Override
+    protected void encodeFields(ByteBuffer buffer) {
+        MessageCodec.putAddress(buffer, initiatorAddress);
+    }
+
+    static GetSuccessorMessage decodeFields(String protocolVersion, int senderId, ByteBuffer buffer) throws UnknownHostException {
+        InetSocketAddress initiatorAddress = MessageCodec.getAddress(buffer);
+
+        return new GetSuccessorMessage(protocolVersion, senderId, initiatorAddress);
+    }
+
     public static GetSuccessorMessage parse(String header) {
         // <Version> GET_SUCCESSOR <SenderId> <InitiatorHostname> <InitiatorPort> <CRLF><CRLF><Body>
         String[] headerComponents = header.split(" ");
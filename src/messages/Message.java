@@ -2,33 +2,39 @@ package messages;
 
 import protocol.Peer;
 
+import java.nio.ByteBuffer;
+
 public abstract class Message {
     public static final String headerSeparator = "\r\n\r\n";
     public static final int MAX_SIZE = Peer.CHUNK_MAX_SIZE + 1000;
 
     public final String protocolVersion;
     public int senderId;
-    public byte[] body;
+    // The body is read from its position to its limit. It may be a view over a larger buffer (such as the payload of
+    // the frame the message was received in), so it must not be modified: use body.duplicate() to read it.
+    public ByteBuffer body;
+
+    // Used to match replies to requests (0 if the message isn't part of a request / reply exchange). It isn't part of
+    // the header, since it is sent in the frame that carries the message.
+    public long requestId = 0;
 
-    public Message(String protocolVersion, int senderId, byte[] body) {
+    public Message(String protocolVersion, int senderId, ByteBuffer body) {
         this.protocolVersion = protocolVersion;
         this.senderId = senderId;
         this.body = body;
     }
 
     public Message(String protocolVersion, int peerId) {
-        this(protocolVersion, peerId, new byte[0]);
+        this(protocolVersion, peerId, ByteBuffer.allocate(0));
     }
 
-    public abstract String buildHeader();
-
-    public byte[] build() {
-        byte[] headerBytes = (buildHeader() + headerSeparator).getBytes();
-        byte[] bytes = new byte[headerBytes.length + body.length];
+    public abstract MessageType getType();
 
-        System.arraycopy(headerBytes, 0, bytes, 0, headerBytes.length);
-        System.arraycopy(body, 0, bytes, headerBytes.length, body.length);
+    public abstract String buildHeader();
 
-        return bytes;
-    }
+    /**
+     * Writes the fields specific to this message in the binary format (see MessageCodec). Messages that have no such
+     * fields don't need to override this method.
+     */
+    protected void encodeFields(ByteBuffer buffer) {}
 }
\ No newline at end of file
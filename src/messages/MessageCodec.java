@@ -0,0 +1,171 @@
+package messages;
+
+import chord.ChordNodeInfo;
+import utils.Utils;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes and decodes the headers of the messages. Two formats are supported:
+ *
+ * - The binary format: a format version byte (BINARY_FORMAT_VERSION), the protocol version (1 byte with its length
+ *   followed by its characters) and the sender ID (4 bytes), followed by the fields of each message. Integers have a
+ *   fixed width, file IDs are sent as their 32 raw bytes and addresses as the bytes of the IPv4 / IPv6 address
+ *   (preceded by their length) followed by the port (2 bytes). The type of the message isn't included, since it is
+ *   already sent in the frame.
+ * - The text format: the fields of the message as text, separated by spaces and followed by two CRLFs.
+ *
+ * Messages are sent in the binary format, unless the sdis.codec system property is set to "text". Both formats are
+ * always accepted when receiving, since the first byte of the binary format can't start a text header.
+ */
+public class MessageCodec {
+    public static final byte BINARY_FORMAT_VERSION = (byte) 0x81;
+    public static final boolean USE_TEXT_FORMAT = System.getProperty("sdis.codec", "binary").equals("text");
+
+    // Large enough for the header of any message in the binary format
+    private static final int MAX_BINARY_HEADER_SIZE = 256;
+
+    private static final int FILE_ID_SIZE = 32;
+
+    /**
+     * Returns the encoded header of a message. The body can be sent right after it, without having to copy both of
+     * them to the same buffer.
+     */
+    public static ByteBuffer encodeHeader(Message message) {
+        if (USE_TEXT_FORMAT) {
+            return ByteBuffer.wrap((message.buildHeader() + Message.headerSeparator).getBytes());
+        }
+
+        byte[] protocolVersion = message.protocolVersion.getBytes(StandardCharsets.US_ASCII);
+
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_BINARY_HEADER_SIZE);
+        buffer.put(BINARY_FORMAT_VERSION).put((byte) protocolVersion.length).put(protocolVersion).putInt(message.senderId);
+        message.encodeFields(buffer);
+
+        return buffer.flip();
+    }
+
+    /**
+     * Decodes a message of the specified type from the payload of a frame, in either format. The body of the message
+     * is a view over the payload. Returns null if the message is malformed.
+     */
+    public static Message decode(MessageType type, ByteBuffer payload) {
+        try {
+            if (payload.hasRemaining() && payload.get(payload.position()) == BINARY_FORMAT_VERSION) {
+                return decodeBinary(type, payload.duplicate());
+            }
+
+            return decodeText(type, payload);
+        }
+        catch (BufferUnderflowException | NegativeArraySizeException | IllegalArgumentException | UnknownHostException ex) {
+            System.err.println("Received malformed " + type + " message: " + ex);
+            return null;
+        }
+    }
+
+    private static Message decodeBinary(MessageType type, ByteBuffer buffer) throws UnknownHostException {
+        buffer.get();
+
+        byte[] protocolVersionBytes = new byte[buffer.get()];
+        buffer.get(protocolVersionBytes);
+        String protocolVersion = new String(protocolVersionBytes, StandardCharsets.US_ASCII);
+
+        int senderId = buffer.getInt();
+
+        switch (type) {
+            case FIND_SUCCESSOR: return FindSuccessorMessage.decodeFields(protocolVersion, senderId, buffer);
+            case SUCCESSOR: return SuccessorMessage.decodeFields(protocolVersion, senderId, buffer);
+            case GET_PREDECESSOR: return GetPredecessorMessage.decodeFields(protocolVersion, senderId, buffer);
+            case PREDECESSOR: return PredecessorMessage.decodeFields(protocolVersion, senderId, buffer);
+            case NOTIFY: return NotifyMessage.decodeFields(protocolVersion, senderId, buffer);
+            case GET_SUCCESSOR: return GetSuccessorMessage.decodeFields(protocolVersion, senderId, buffer);
+            case NODE_SUCCESSOR: return NodeSuccessorMessage.decodeFields(protocolVersion, senderId, buffer);
+            case ALIVE: return new AliveMessage(protocolVersion, senderId);
+            case PUT_CHUNK: return PutChunkMessage.decodeFields(protocolVersion, senderId, buffer);
+            case STORED: return StoredMessage.decodeFields(protocolVersion, senderId, buffer);
+            case DELETE: return DeleteMessage.decodeFields(protocolVersion, senderId, buffer);
+            case GET_CHUNK: return GetChunkMessage.decodeFields(protocolVersion, senderId, buffer);
+            case CHUNK: return ChunkMessage.decodeFields(protocolVersion, senderId, buffer);
+            case REMOVED: return RemovedMessage.decodeFields(protocolVersion, senderId, buffer);
+            case START_PUT_CHUNK: return StartPutChunkMessage.decodeFields(protocolVersion, senderId, buffer);
+            case VERIFY_CHUNK: return VerifyChunkMessage.decodeFields(protocolVersion, senderId, buffer);
+            default: return null;
+        }
+    }
+
+    private static Message decodeText(MessageType type, ByteBuffer payload) {
+        int headerLength = Utils.findHeaderLength(payload);
+        if (headerLength < 0) {
+            return null;
+        }
+
+        // The header is decoded straight from the payload and the body is a view over the rest of it
+        String header = Utils.decodeString(payload, headerLength);
+        ByteBuffer body = payload.duplicate().position(payload.position() + headerLength + Message.headerSeparator.length()).slice();
+
+        switch (type) {
+            case FIND_SUCCESSOR: return FindSuccessorMessage.parse(header, body);
+            case SUCCESSOR: return SuccessorMessage.parse(header, body);
+            case GET_PREDECESSOR: return GetPredecessorMessage.parse(header, body);
+            case PREDECESSOR: return PredecessorMessage.parse(header, body);
+            case NOTIFY: return NotifyMessage.parse(header, body);
+            case GET_SUCCESSOR: return GetSuccessorMessage.parse(header);
+            case NODE_SUCCESSOR: return NodeSuccessorMessage.parse(header);
+            case ALIVE: return AliveMessage.parse(header);
+            case PUT_CHUNK: return PutChunkMessage.parse(header, body);
+            case STORED: return StoredMessage.parse(header);
+            case DELETE: return DeleteMessage.parse(header);
+            case GET_CHUNK: return GetChunkMessage.parse(header);
+            case CHUNK: return ChunkMessage.parse(header, body);
+            case REMOVED: return RemovedMessage.parse(header);
+            case START_PUT_CHUNK: return StartPutChunkMessage.parse(header);
+            case VERIFY_CHUNK: return VerifyChunkMessage.parse(header);
+            default: return null;
+        }
+    }
+
+    static void putFileId(ByteBuffer buffer, String fileId) {
+        byte[] bytes = Utils.hexToByteArray(fileId);
+
+        if (bytes.length != FILE_ID_SIZE) {
+            throw new IllegalArgumentException("Invalid file ID: " + fileId);
+        }
+
+        buffer.put(bytes);
+    }
+
+    static String getFileId(ByteBuffer buffer) {
+        byte[] bytes = new byte[FILE_ID_SIZE];
+        buffer.get(bytes);
+
+        return Utils.byteArrayToHex(bytes);
+    }
+
+    static void putAddress(ByteBuffer buffer, InetSocketAddress address) {
+        byte[] bytes = address.getAddress().getAddress();
+        buffer.put((byte) bytes.length).put(bytes).putShort((short) address.getPort());
+    }
+
+    static InetSocketAddress getAddress(ByteBuffer buffer) throws UnknownHostException {
+        byte[] bytes = new byte[buffer.get()];
+        buffer.get(bytes);
+
+        // Creating the address from its bytes never performs a DNS lookup
+        return new InetSocketAddress(InetAddress.getByAddress(bytes), Short.toUnsignedInt(buffer.getShort()));
+    }
+
+    static void putNodeInfo(ByteBuffer buffer, ChordNodeInfo nodeInfo) {
+        buffer.putLong(nodeInfo.id);
+        putAddress(buffer, nodeInfo.address);
+    }
+
+    static ChordNodeInfo getNodeInfo(ByteBuffer buffer) throws UnknownHostException {
+        long id = buffer.getLong();
+        return new ChordNodeInfo(id, getAddress(buffer));
+    }
+}
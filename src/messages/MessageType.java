@@ -0,0 +1,45 @@
+package messages;
+
+/**
+ * Types of the messages exchanged between peers. The code of each type is sent in the header of every frame, so that
+ * the receiver knows which message it contains before parsing it.
+ */
+public enum MessageType {
+    FIND_SUCCESSOR(1),
+    SUCCESSOR(2),
+    GET_PREDECESSOR(3),
+    PREDECESSOR(4),
+    NOTIFY(5),
+    GET_SUCCESSOR(6),
+    NODE_SUCCESSOR(7),
+    ALIVE(8),
+    PUT_CHUNK(9),
+    STORED(10),
+    DELETE(11),
+    GET_CHUNK(12),
+    CHUNK(13),
+    REMOVED(14),
+    START_PUT_CHUNK(15),
+    VERIFY_CHUNK(16);
+
+    private static final MessageType[] typesByCode = new MessageType[256];
+
+    static {
+        for (MessageType type : values()) {
+            typesByCode[type.code] = type;
+        }
+    }
+
+    public final byte code;
+
+    MessageType(int code) {
+        this.code = (byte) code;
+    }
+
+    /**
+     * Returns the message type with the specified code, or null if there is no such type.
+     */
+    public static MessageType fromCode(byte code) {
+        return typesByCode[Byte.toUnsignedInt(code)];
+    }
+}
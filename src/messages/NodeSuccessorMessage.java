@@ -3,6 +3,8 @@ package messages;
 import chord.ChordNodeInfo;
 
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 public class NodeSuccessorMessage extends Message {
     public static final String name = "NODE_SUCCESSOR";
@@ -14,6 +16,11 @@ public class NodeSuccessorMessage extends Message {
         this.successorInfo = successorInfo;
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.NODE_SUCCESSOR;
+    }
+
     @Override
     public String buildHeader() {
         String[] components = { protocolVersion, name, String.valueOf(senderId),
@@ -23,6 +30,17 @@ public class NodeSuccessorMessage extends Message {
         return String.join(" ", components);
     }
 
+    @Override
+    protected void encodeFields(ByteBuffer buffer) {
+        MessageCodec.putNodeInfo(buffer, successorInfo);
+    }
+
+    static NodeSuccessorMessage decodeFields(String protocolVersion, int senderId, ByteBuffer buffer) throws UnknownHostException {
+        ChordNodeInfo successorInfo = MessageCodec.getNodeInfo(buffer);
+
+        return new NodeSuccessorMessage(protocolVersion, senderId, successorInfo);
+    }
+
     public static NodeSuccessorMessage parse(String header) {
         // <Version> NODE_SUCCESSOR <SenderId> <SuccessorKey> <SuccessorHostname> <SuccessorPort> <CRLF><CRLF><Body>
         String[] headerComponents = header.split(" ");
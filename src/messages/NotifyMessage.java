@@ -3,6 +3,8 @@ package messages;
 import chord.ChordNodeInfo;
 
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 public class NotifyMessage extends Message {
     public static final String name = "NOTIFY";
@@ -14,6 +16,11 @@ public class NotifyMessage extends Message {
         this.nodeInfo = nodeInfo;
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.NOTIFY;
+    }
+
     @Override
     public String buildHeader() {
         String[] components = { protocolVersion, name, String.valueOf(senderId), String.valueOf(nodeInfo.id),
@@ -22,7 +29,18 @@ public class NotifyMessage extends Message {
         return String.join(" ", components);
     }
 
-    public static NotifyMessage parse(String header, byte[] body) {
+    @Override
+    protected void encodeFields(ByteBuffer buffer) {
+        MessageCodec.putNodeInfo(buffer, nodeInfo);
+    }
+
+    static NotifyMessage decodeFields(String protocolVersion, int senderId, ByteBuffer buffer) throws UnknownHostException {
+        ChordNodeInfo nodeInfo = MessageCodec.getNodeInfo(buffer);
+
+        return new NotifyMessage(protocolVersion, senderId, nodeInfo);
+    }
+
+    public static NotifyMessage parse(String header, ByteBuffer body) {
         // <Version> NOTIFY <SenderId> <InitiatorKey> <InitiatorHostname> <InitiatorPort> <CRLF><CRLF><Body>
         String[] headerComponents = header.split(" ");
 
@@ -3,6 +3,8 @@ package messages;
 import chord.ChordNodeInfo;
 
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 public class PredecessorMessage extends Message {
     public static final String name = "PREDECESSOR";
@@ -14,6 +16,11 @@ public class PredecessorMessage extends Message {
         this.predecessorInfo = predecessorInfo;
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.PREDECESSOR;
+    }
+
     @Override
     public String buildHeader() {
         String[] components;
@@ -30,7 +37,27 @@ public class PredecessorMessage extends Message {
         return String.join(" ", components);
     }
 
-    public static PredecessorMessage parse(String header, byte[] body) {
+    @Override
+    protected void encodeFields(ByteBuffer buffer) {
+        // The predecessor may be unknown
+        buffer.put((byte) (predecessorInfo != null ? 1 : 0));
+
+        if (predecessorInfo != null) {
+            MessageCodec.putNodeInfo(buffer, predecessorInfo);
+        }
+    }
+
+    static PredecessorMessage decodeFields(String protocolVersion, int senderId, ByteBuffer buffer) throws UnknownHostException {
+        ChordNodeInfo predecessorInfo = null;
+
+        if (buffer.get() != 0) {
+            predecessorInfo = MessageCodec.getNodeInfo(buffer);
+        }
+
+        return new PredecessorMessage(protocolVersion, senderId, predecessorInfo);
+    }
+
+    public static PredecessorMessage parse(String header, ByteBuffer body) {
         // <Version> PREDECESSOR <SenderId> [<PredecessorKey> <PredecessorHostname> <PredecessorPort>] <CRLF><CRLF><Body>
         String[] headerComponents = header.split(" ");
 
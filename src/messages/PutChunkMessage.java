@@ -6,6 +6,8 @@ import protocol.Peer;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 
@@ -18,7 +20,7 @@ public class PutChunkMessage extends Message {
     public InetSocketAddress initiatorAddress;
 
     public PutChunkMessage(String protocolVersion, int senderId, String fileId, int chunkNumber, int replicationDegree,
-                           InetSocketAddress initiatorAddress, byte[] body) {
+                           InetSocketAddress initiatorAddress, ByteBuffer body) {
         super(protocolVersion, senderId, body);
 
         this.fileId = fileId;
@@ -27,15 +29,40 @@ public class PutChunkMessage extends Message {
         this.initiatorAddress = initiatorAddress;
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.PUT_CHUNK;
+    }
+
     @Override
     public String buildHeader() {
         String[] components = { protocolVersion, name, String.valueOf(senderId), fileId, String.valueOf(chunkNumber),
-                String.valueOf(replicationDegree), initiatorAddress.getHostName(), String.valueOf(initiatorAddress.getPort()) };
+                String.valueOf(replicationDegree), initiatorAddress.getAddress().getHostAddress(),
+                String.valueOf(initiatorAddress.getPort()) };
 
         return String.join(" ", components);
     }
 
-    public static PutChunkMessage parse(String header, byte[] body) {
+    @Override
+    protected void encodeFields(ByteBuffer buffer) {
+        MessageCodec.putFileId(buffer, fileId);
+        buffer.putInt(chunkNumber);
+        buffer.putInt(replicationDegree);
+        MessageCodec.putAddress(buffer, initiatorAddress);
+    }
+
+    static PutChunkMessage decodeFields(String protocolVersion, int senderId, ByteBuffer buffer) throws UnknownHostException {
+        String fileId = MessageCodec.getFileId(buffer);
+        int chunkNumber = buffer.getInt(), replicationDegree = buffer.getInt();
+        InetSocketAddress initiatorAddress = MessageCodec.getAddress(buffer);
+
+        // The rest of the payload is the body
+        ByteBuffer body = buffer.slice();
+
+        return new PutChunkMessage(protocolVersion, senderId, fileId, chunkNumber, replicationDegree, initiatorAddress, body);
+    }
+
+    public static PutChunkMessage parse(String header, ByteBuffer body) {
         // <Version> PUT_CHUNK <SenderId> <FileId> <ChunkNo> <ReplicationDeg> <InitiatorHostname> <InitiatorPort> <CRLF><CRLF><Body>
         String[] headerComponents = header.split(" ");
 
@@ -82,7 +109,7 @@ public class PutChunkMessage extends Message {
         if (replicationDegree != 0) {
             try {
                 ClientThread thread = new ClientThread(chordNode.getSuccessorInfo().address, this);
-                Peer.executor.execute(thread);
+                Peer.dispatch(thread);
             }
             catch (IOException | GeneralSecurityException ex) {
                 System.err.println("Error when forwarding PUT_CHUNK message: " + ex.getMessage());
@@ -1,6 +1,8 @@
 package messages;
 
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 public class StartPutChunkMessage extends Message {
     public static final String name = "START_PUT_CHUNK";
@@ -20,14 +22,36 @@ public class StartPutChunkMessage extends Message {
         this.initiatorAddress = initiatorAddress;
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.START_PUT_CHUNK;
+    }
+
     @Override
     public String buildHeader() {
         String[] components = { protocolVersion, name, String.valueOf(senderId), fileId, String.valueOf(chunkNumber),
-                String.valueOf(replicationDegree), initiatorAddress.getHostName(), String.valueOf(initiatorAddress.getPort()) };
+                String.valueOf(replicationDegree), initiatorAddress.getAddress().getHostAddress(),
+                String.valueOf(initiatorAddress.getPort()) };
 
         return String.join(" ", components);
     }
 
+    @Override
+    protected void encodeFields(ByteBuffer buffer) {
+        MessageCodec.putFileId(buffer, fileId);
+        buffer.putInt(chunkNumber);
+        buffer.putInt(replicationDegree);
+        MessageCodec.putAddress(buffer, initiatorAddress);
+    }
+
+    static StartPutChunkMessage decodeFields(String protocolVersion, int senderId, ByteBuffer buffer) throws UnknownHostException {
+        String fileId = MessageCodec.getFileId(buffer);
+        int chunkNumber = buffer.getInt(), replicationDegree = buffer.getInt();
+        InetSocketAddress initiatorAddress = MessageCodec.getAddress(buffer);
+
+        return new StartPutChunkMessage(protocolVersion, senderId, fileId, chunkNumber, replicationDegree, initiatorAddress);
+    }
+
     public static StartPutChunkMessage parse(String header) {
         // <Version> START_PUT_CHUNK <SenderId> <FileId> <ChunkNo> <ReplicationDeg> <InitiatorHostname> <InitiatorPort> <CRLF><CRLF><Body>
         String[] headerComponents = header.split(" ");
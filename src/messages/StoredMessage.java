@@ -1,6 +1,8 @@
 package messages;
 
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 public class StoredMessage extends Message {
     public static final String name = "STORED";
@@ -17,6 +19,11 @@ public class StoredMessage extends Message {
         this.senderAddress = senderAddress;
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.STORED;
+    }
+
     @Override
     public String buildHeader() {
         String[] components = { protocolVersion, name, String.valueOf(senderId), fileId, String.valueOf(chunkNumber),
@@ -25,6 +32,21 @@ public class StoredMessage extends Message {
         return String.join(" ", components);
     }
 
+    @Override
+    protected void encodeFields(ByteBuffer buffer) {
+        MessageCodec.putFileId(buffer, fileId);
+        buffer.putInt(chunkNumber);
+        MessageCodec.putAddress(buffer, senderAddress);
+    }
+
+    static StoredMessage decodeFields(String protocolVersion, int senderId, ByteBuffer buffer) throws UnknownHostException {
+        String fileId = MessageCodec.getFileId(buffer);
+        int chunkNumber = buffer.getInt();
+        InetSocketAddress senderAddress = MessageCodec.getAddress(buffer);
+
+        return new StoredMessage(protocolVersion, senderId, fileId, chunkNumber, senderAddress);
+    }
+
     public static StoredMessage parse(String header) {
         // <Version> STORED <SenderId> <FileId> <ChunkNo> <SenderAddress> <SenderPort> <CRLF><CRLF><Body>
         String[] headerComponents = header.split(" ");
@@ -3,6 +3,8 @@ package messages;
 import chord.ChordNodeInfo;
 
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 public class SuccessorMessage extends Message {
     public static final String name = "SUCCESSOR";
@@ -17,6 +19,11 @@ public class SuccessorMessage extends Message {
         this.nodeInfo = nodeInfo;
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.SUCCESSOR;
+    }
+
     @Override
     public String buildHeader() {
         String[] components = { protocolVersion, name, String.valueOf(senderId), String.valueOf(key),
@@ -26,7 +33,20 @@ public class SuccessorMessage extends Message {
         return String.join(" ", components);
     }
 
-    public static SuccessorMessage parse(String header, byte[] body) {
+    @Override
+    protected void encodeFields(ByteBuffer buffer) {
+        buffer.putLong(key);
+        MessageCodec.putNodeInfo(buffer, nodeInfo);
+    }
+
+    static SuccessorMessage decodeFields(String protocolVersion, int senderId, ByteBuffer buffer) throws UnknownHostException {
+        long key = buffer.getLong();
+        ChordNodeInfo nodeInfo = MessageCodec.getNodeInfo(buffer);
+
+        return new SuccessorMessage(protocolVersion, senderId, key, nodeInfo);
+    }
+
+    public static SuccessorMessage parse(String header, ByteBuffer body) {
         // <Version> SUCCESSOR <SenderId> <Key> <SuccessorKey> <SuccessorHostname> <SuccessorPort> <CRLF><CRLF><Body>
         String[] headerComponents = header.split(" ");
 
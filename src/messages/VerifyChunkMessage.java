@@ -1,6 +1,8 @@
 package messages;
 
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 public class VerifyChunkMessage extends Message {
     public static final String name = "VERIFY_CHUNK";
@@ -17,14 +19,34 @@ public class VerifyChunkMessage extends Message {
         this.initiatorAddress = initiatorAddress;
     }
 
+    @Override
+    public MessageType getType() {
+        return MessageType.VERIFY_CHUNK;
+    }
+
     @Override
     public String buildHeader() {
         String[] components = { protocolVersion, name, String.valueOf(senderId), fileId, String.valueOf(chunkNumber),
-                initiatorAddress.getHostName(), String.valueOf(initiatorAddress.getPort()) };
+                initiatorAddress.getAddress().getHostAddress(), String.valueOf(initiatorAddress.getPort()) };
 
         return String.join(" ", components);
     }
 
+    @Override
+    protected void encodeFields(ByteBuffer buffer) {
+        MessageCodec.putFileId(buffer, fileId);
+        buffer.putInt(chunkNumber);
+        MessageCodec.putAddress(buffer, initiatorAddress);
+    }
+
+    static VerifyChunkMessage decodeFields(String protocolVersion, int senderId, ByteBuffer buffer) throws UnknownHostException {
+        String fileId = MessageCodec.getFileId(buffer);
+        int chunkNumber = buffer.getInt();
+        InetSocketAddress initiatorAddress = MessageCodec.getAddress(buffer);
+
+        return new VerifyChunkMessage(protocolVersion, senderId, fileId, chunkNumber, initiatorAddress);
+    }
+
     public static VerifyChunkMessage parse(String header) {
         // <Version> VERIFY_CHUNK <SenderId> <FileId> <ChunkNo> <InitiatorHostname> <InitiatorPort> <CRLF><CRLF><Body>
         String[] headerComponents = header.split(" ");
@@ -0,0 +1,293 @@
+package protocol;
+
+import utils.Metrics;
+import workers.ReadChunkThread;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Backup of a file that is in progress. Instead of reading every chunk of the file at once, the chunks are read and
+ * sent in order, while the chunks in flight (read but not yet stored with the desired replication degree) fit in a
+ * window of sdis.backup.windowChunks chunks and sdis.backup.windowBytes bytes. This way, the memory used by a backup
+ * doesn't depend on the size of the file.
+ *
+ * A chunk leaves the window when it reaches the desired replication degree, when sending it fails, or when it isn't
+ * fully acknowledged within sdis.backup.ackTimeout milliseconds after being read (for example, when there aren't
+ * enough peers). In the last case, CheckReplicationDegreeThread takes care of it later.
+ *
+ * The file is read sequentially by a single ReadChunkThread, in blocks of sdis.backup.readAheadChunks chunks, which
+ * are then split into the chunks that are sent. Chunks are let into the window one block at a time, so that the
+ * reads stay large. The hashes of the chunks of each block are written to a temporary file as the block is read, which
+ * becomes the file of the chunk hashes (see FileInformation.getChunkHashesPath) once the backup has finished.
+ */
+public class BackupPipeline {
+    public static final int WINDOW_CHUNKS = Integer.getInteger("sdis.backup.windowChunks", 32);
+    public static final long WINDOW_BYTES = Long.getLong("sdis.backup.windowBytes", 4 * 1024 * 1024);
+    public static final long ACK_TIMEOUT = Long.getLong("sdis.backup.ackTimeout", 10000);
+    public static final int READ_AHEAD_CHUNKS = Integer.getInteger("sdis.backup.readAheadChunks", 16);
+
+    // Blocks can't be larger than the window
+    public static final int BLOCK_CHUNKS = (int) Math.max(1, Math.min(READ_AHEAD_CHUNKS,
+            Math.min(WINDOW_CHUNKS, WINDOW_BYTES / Peer.CHUNK_MAX_SIZE)));
+
+    private static final LongAdder ackTimeouts = Metrics.counter("backup.ackTimeouts");
+
+    static {
+        Metrics.gauge("backup.inFlightChunks", () -> Peer.backupPipelines.values().stream().mapToLong(BackupPipeline::getInFlightChunks).sum());
+        Metrics.gauge("backup.inFlightBytes", () -> Peer.backupPipelines.values().stream().mapToLong(BackupPipeline::getInFlightBytes).sum());
+    }
+
+    public final String fileId;
+    public final int numChunks, replicationDegree;
+    public final FileChannel channel;
+    public final long fileSize;
+    private final Job job;
+
+    // Temporary file of the chunk hashes, opened when the first block has been read
+    private final Path hashesPath;
+    private FileChannel hashesChannel;
+    private boolean hashesFailed = false, hashesFinished = false;
+
+    // Chunks in the window, mapped to the task that takes them out of it if they aren't acknowledged in time (null
+    // until the chunk has been read)
+    private final Map<Integer, ScheduledFuture<?>> inFlightChunks = new HashMap<>();
+    private long inFlightBytes = 0;
+    private int nextChunk = 0;
+
+    // Chunks before nextChunkToRead have already been read, the others in the window are waiting for ReadChunkThread
+    private int nextChunkToRead = 0;
+    private boolean reading = false, cancelled = false;
+
+    public BackupPipeline(FileChannel channel, String fileId, long fileSize, int numChunks, int replicationDegree, Job job) {
+        this.channel = channel;
+        this.job = job;
+        this.fileId = fileId;
+        this.fileSize = fileSize;
+        this.numChunks = numChunks;
+        this.replicationDegree = replicationDegree;
+        this.hashesPath = FileInformation.getChunkHashesPath(fileId).resolveSibling(fileId + ".part");
+    }
+
+    /**
+     * Starts reading the first chunks of the file. Returns false if the same file is already being backed up.
+     */
+    public boolean start() {
+        if (Peer.backupPipelines.putIfAbsent(fileId, this) != null) {
+            return false;
+        }
+
+        fillWindow();
+        return true;
+    }
+
+    /**
+     * Stops reading new chunks. The chunks in flight are still sent.
+     */
+    public synchronized void cancel() {
+        // The chunks that haven't been read yet are dropped from the window
+        for (int chunkNumber = nextChunkToRead; chunkNumber < nextChunk; ++chunkNumber) {
+            inFlightChunks.remove(chunkNumber);
+            inFlightBytes -= getChunkSize(chunkNumber);
+        }
+
+        nextChunk = nextChunkToRead;
+        cancelled = true;
+        finishIfDone();
+    }
+
+    public int getChunkSize(int chunkNumber) {
+        return (int) Math.max(0, Math.min(Peer.CHUNK_MAX_SIZE, fileSize - (long) chunkNumber * Peer.CHUNK_MAX_SIZE));
+    }
+
+    public synchronized boolean isInFlight(int chunkNumber) {
+        return inFlightChunks.containsKey(chunkNumber);
+    }
+
+    public synchronized long getInFlightChunks() {
+        return inFlightChunks.size();
+    }
+
+    public synchronized long getInFlightBytes() {
+        return inFlightBytes;
+    }
+
+    /**
+     * Returns the chunks that ReadChunkThread should read next, as the number of the first chunk and the number of
+     * chunks, or null if every chunk in the window has been read (in which case the thread stops).
+     */
+    public synchronized int[] nextBlock() {
+        if (nextChunkToRead == nextChunk) {
+            reading = false;
+            finishIfDone();
+            return null;
+        }
+
+        int firstChunk = nextChunkToRead;
+        int numBlockChunks = Math.min(BLOCK_CHUNKS, nextChunk - nextChunkToRead);
+        nextChunkToRead += numBlockChunks;
+
+        return new int[] {firstChunk, numBlockChunks};
+    }
+
+    /**
+     * Called once a chunk has been read and is about to be sent, to start waiting for its STORED messages.
+     */
+    public synchronized void chunkRead(int chunkNumber) {
+        if (inFlightChunks.containsKey(chunkNumber)) {
+            inFlightChunks.put(chunkNumber, Peer.executor.schedule(() -> timeOut(chunkNumber), ACK_TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Called when a STORED message is received for a chunk of this file, with the number of peers that store it.
+     */
+    public synchronized void chunkStored(int chunkNumber, int replicas) {
+        if (replicas >= replicationDegree && isInFlight(chunkNumber)) {
+            // Counted before releasing the chunk, since releasing the last one finishes the job
+            job.chunkDone(getChunkSize(chunkNumber));
+            release(chunkNumber);
+        }
+    }
+
+    /**
+     * Takes a chunk out of the window, so that the next chunks can be read.
+     */
+    public synchronized void release(int chunkNumber) {
+        if (!inFlightChunks.containsKey(chunkNumber)) return;
+
+        ScheduledFuture<?> timeout = inFlightChunks.remove(chunkNumber);
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+
+        inFlightBytes -= getChunkSize(chunkNumber);
+        fillWindow();
+    }
+
+    private void timeOut(int chunkNumber) {
+        if (isInFlight(chunkNumber)) {
+            ackTimeouts.increment();
+            release(chunkNumber);
+        }
+    }
+
+    private synchronized void fillWindow() {
+        while (!cancelled && nextChunk < numChunks) {
+            int lastChunk = Math.min(nextChunk + BLOCK_CHUNKS, numChunks);
+            long blockSize = getBlockSize(nextChunk, lastChunk - nextChunk);
+
+            // At least one block is always allowed, even if the window is smaller than a block
+            if (!inFlightChunks.isEmpty()
+                    && (inFlightChunks.size() + lastChunk - nextChunk > WINDOW_CHUNKS || inFlightBytes + blockSize > WINDOW_BYTES)) {
+                break;
+            }
+
+            for (; nextChunk < lastChunk; ++nextChunk) {
+                inFlightChunks.put(nextChunk, null);
+            }
+            inFlightBytes += blockSize;
+        }
+
+        if (!reading && nextChunkToRead < nextChunk) {
+            reading = true;
+            Peer.transferExecutor.execute(new ReadChunkThread(this), PriorityExecutor.NORMAL_PRIORITY);
+        }
+
+        finishIfDone();
+    }
+
+    /**
+     * Writes the hashes of the chunks of a block, one after the other, to the temporary file of the chunk hashes.
+     * Called by ReadChunkThread once it has read the block.
+     */
+    public synchronized void writeChunkHashes(int firstChunk, byte[] hashes) {
+        if (hashesFailed || hashesFinished || cancelled) return;
+
+        try {
+            if (hashesChannel == null) {
+                Files.createDirectories(hashesPath.getParent());
+
+                // The file is given its final size up front, so that the hashes of the blocks that can't be read are
+                // left as zeros
+                RandomAccessFile file = new RandomAccessFile(hashesPath.toFile(), "rw");
+                hashesChannel = file.getChannel();
+                file.setLength((long) numChunks * FileInformation.HASH_SIZE);
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(hashes);
+            while (buffer.hasRemaining()) {
+                hashesChannel.write(buffer, (long) firstChunk * FileInformation.HASH_SIZE + buffer.position());
+            }
+        }
+        catch (IOException ex) {
+            // The file can still be restored, just not from the original file
+            System.err.println("Error when saving the chunk hashes of file " + fileId + ": " + ex.getMessage());
+            hashesFailed = true;
+        }
+    }
+
+    private void finishChunkHashes() {
+        if (hashesFinished) return;
+        hashesFinished = true;
+
+        try {
+            if (hashesChannel != null) {
+                hashesChannel.close();
+            }
+
+            if (cancelled || hashesFailed || hashesChannel == null) {
+                Files.deleteIfExists(hashesPath);
+            }
+            else {
+                Files.move(hashesPath, FileInformation.getChunkHashesPath(fileId), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException ex) {
+            System.err.println("Error when saving the chunk hashes of file " + fileId + ": " + ex.getMessage());
+        }
+    }
+
+    public long getBlockSize(int firstChunk, int numBlockChunks) {
+        return Math.max(0, Math.min((long) numBlockChunks * Peer.CHUNK_MAX_SIZE, fileSize - (long) firstChunk * Peer.CHUNK_MAX_SIZE));
+    }
+
+    private void finishIfDone() {
+        if ((!cancelled && nextChunk < numChunks) || !inFlightChunks.isEmpty() || reading) return;
+
+        // Every chunk has been read, the file can be closed
+        Peer.backupPipelines.remove(fileId, this);
+
+        // Before the job finishes, so that a restore started right after it can use the hashes
+        finishChunkHashes();
+
+        int chunksNotStored = numChunks - job.getChunksDone();
+        if (cancelled) {
+            job.fail("The file was deleted before its backup finished");
+        }
+        else if (chunksNotStored > 0) {
+            // The replication degree of these chunks will still be repaired by CheckReplicationDegreeThread
+            job.fail(chunksNotStored + " chunks didn't reach the desired replication degree in time");
+        }
+        else {
+            job.complete();
+        }
+
+        try {
+            channel.close();
+        }
+        catch (IOException ex) {
+            System.err.println("Error when closing file " + fileId + ": " + ex.getMessage());
+        }
+    }
+}
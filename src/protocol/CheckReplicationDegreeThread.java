@@ -23,6 +23,12 @@ public class CheckReplicationDegreeThread extends Thread {
             ChunkIdentifier key = entry.getKey();
             Set<InetSocketAddress> value = entry.getValue();
 
+            // Chunks that are still being backed up are left to the BACKUP protocol
+            BackupPipeline pipeline = Peer.backupPipelines.get(key.fileId);
+            if (pipeline != null && pipeline.isInFlight(key.chunkNumber)) {
+                continue;
+            }
+
             int replicationDegreeDifference = Peer.state.desiredReplicationDegreeMap.get(key.fileId) - value.size();
 
             if (replicationDegreeDifference > 0) {
@@ -37,7 +43,7 @@ public class CheckReplicationDegreeThread extends Thread {
 
                     try {
                         ClientThread thread = new ClientThread(address, message);
-                        Peer.executor.execute(thread);
+                        Peer.dispatch(thread);
                     }
                     catch (IOException | GeneralSecurityException ex) {
                         System.out.println("Exception when sending START_PUT_CHUNK message: " + ex.getMessage());
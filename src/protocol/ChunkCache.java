@@ -0,0 +1,148 @@
+package protocol;
+
+import utils.Metrics;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copies in memory of the stored chunks that are requested most often, kept within a budget of sdis.cache.bytes bytes.
+ * Chunks are evicted with the 2Q policy, so that a restore that reads every chunk of a large file once doesn't evict
+ * the chunks that are requested again and again:
+ *
+ * - A chunk that isn't cached is added to a FIFO queue (a quarter of the budget). Chunks evicted from it are only
+ *   remembered by their identifier, in a queue of recently evicted chunks.
+ * - A chunk that is requested again after being evicted from the FIFO queue is added to an LRU queue (the rest of the
+ *   budget), where the chunks that are requested often stay.
+ */
+public class ChunkCache {
+    public static final long BUDGET = Long.getLong("sdis.cache.bytes", 0);
+
+    private static final LongAdder hits = Metrics.counter("cache.hits");
+    private static final LongAdder misses = Metrics.counter("cache.misses");
+    private static final LongAdder evictions = Metrics.counter("cache.evictions");
+
+    // Chunks requested once recently, in the order they were added
+    private final LinkedHashMap<ChunkIdentifier, ByteBuffer> recentChunks = new LinkedHashMap<>();
+    private long recentBytes = 0;
+
+    // Chunks requested more than once, from the least to the most recently requested
+    private final LinkedHashMap<ChunkIdentifier, ByteBuffer> frequentChunks = new LinkedHashMap<>(16, 0.75f, true);
+    private long frequentBytes = 0;
+
+    // Chunks recently evicted from recentChunks
+    private final LinkedHashSet<ChunkIdentifier> evictedChunks = new LinkedHashSet<>();
+
+    private final long recentBudget = BUDGET / 4;
+    private final int maxEvictedChunks = (int) Math.max(1, BUDGET / 2 / Peer.CHUNK_MAX_SIZE);
+
+    public ChunkCache() {
+        Metrics.gauge("cache.bytes", this::getBytes);
+        Metrics.gauge("cache.chunks", this::getNumChunks);
+        Metrics.gauge("cache.hitRatioPercent", () -> {
+            long numHits = hits.sum(), numRequests = numHits + misses.sum();
+            return numRequests > 0 ? numHits * 100 / numRequests : 0;
+        });
+    }
+
+    /**
+     * Returns a read-only view of a cached chunk, or null if it isn't cached.
+     */
+    public synchronized ByteBuffer get(ChunkIdentifier identifier) {
+        ByteBuffer body = frequentChunks.get(identifier);
+        if (body == null) {
+            body = recentChunks.get(identifier);
+        }
+
+        if (body == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return body.asReadOnlyBuffer();
+    }
+
+    /**
+     * Adds a copy of a chunk that has just been read from the disk.
+     */
+    public void put(ChunkIdentifier identifier, ByteBuffer body) {
+        // Copied outside of the lock
+        ByteBuffer copy = ByteBuffer.allocate(body.remaining()).put(body.duplicate()).flip();
+
+        synchronized (this) {
+            if (frequentChunks.containsKey(identifier) || recentChunks.containsKey(identifier)) return;
+
+            if (evictedChunks.remove(identifier)) {
+                frequentChunks.put(identifier, copy);
+                frequentBytes += copy.remaining();
+            }
+            else {
+                recentChunks.put(identifier, copy);
+                recentBytes += copy.remaining();
+            }
+
+            evict();
+        }
+    }
+
+    public synchronized void invalidate(ChunkIdentifier identifier) {
+        ByteBuffer body = recentChunks.remove(identifier);
+        if (body != null) {
+            recentBytes -= body.remaining();
+        }
+
+        body = frequentChunks.remove(identifier);
+        if (body != null) {
+            frequentBytes -= body.remaining();
+        }
+
+        evictedChunks.remove(identifier);
+    }
+
+    public synchronized void invalidateFile(String fileId) {
+        recentChunks.keySet().removeIf(identifier -> identifier.fileId.equals(fileId));
+        frequentChunks.keySet().removeIf(identifier -> identifier.fileId.equals(fileId));
+        evictedChunks.removeIf(identifier -> identifier.fileId.equals(fileId));
+
+        recentBytes = recentChunks.values().stream().mapToLong(ByteBuffer::remaining).sum();
+        frequentBytes = frequentChunks.values().stream().mapToLong(ByteBuffer::remaining).sum();
+    }
+
+    private void evict() {
+        while (recentBytes + frequentBytes > BUDGET) {
+            if (recentBytes > recentBudget || frequentChunks.isEmpty()) {
+                Iterator<Map.Entry<ChunkIdentifier, ByteBuffer>> iterator = recentChunks.entrySet().iterator();
+                Map.Entry<ChunkIdentifier, ByteBuffer> oldest = iterator.next();
+                iterator.remove();
+                recentBytes -= oldest.getValue().remaining();
+
+                evictedChunks.add(oldest.getKey());
+                if (evictedChunks.size() > maxEvictedChunks) {
+                    Iterator<ChunkIdentifier> evictedIterator = evictedChunks.iterator();
+                    evictedIterator.next();
+                    evictedIterator.remove();
+                }
+            }
+            else {
+                Iterator<Map.Entry<ChunkIdentifier, ByteBuffer>> iterator = frequentChunks.entrySet().iterator();
+                frequentBytes -= iterator.next().getValue().remaining();
+                iterator.remove();
+            }
+
+            evictions.increment();
+        }
+    }
+
+    private synchronized long getBytes() {
+        return recentBytes + frequentBytes;
+    }
+
+    private synchronized long getNumChunks() {
+        return recentChunks.size() + frequentChunks.size();
+    }
+}
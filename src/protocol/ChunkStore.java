@@ -0,0 +1,385 @@
+package protocol;
+
+import utils.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stores the chunks backed up by this peer in a few large segment files instead of one file per chunk. Chunks are
+ * appended to the active segment, which is preallocated with sdis.store.segmentSize bytes, and a new segment is
+ * started when it is full. The position of each chunk is kept in an index in memory (stored chunks are discarded
+ * when the peer restarts, so the index doesn't have to be rebuilt from the segments).
+ *
+ * Chunks are read as read-only slices of a memory mapping of their segment (unless sdis.store.mmap is set to false),
+ * which are sent to other peers without being copied. Segments are never overwritten, so a slice stays valid even if
+ * its chunk is removed or its segment is compacted and deleted afterwards.
+ *
+ * If sdis.cache.bytes is set, the chunks that are read most often are also kept in memory (see ChunkCache). Only
+ * chunks that are listed in the peer's storedChunksMap are cached, and a chunk stops being cached as soon as it is
+ * removed from it (see invalidate).
+ *
+ * If sdis.store.groupCommit is set to true, the chunks that are stored are only considered stored once they have
+ * been synced to the disk, which is done for many chunks at once (see GroupCommit).
+ *
+ * Removing a chunk only drops it from the index. Segments that are no longer active and in which less than
+ * sdis.store.compactionThreshold of the bytes are still used are compacted periodically: their chunks are copied to
+ * the active segment, and the segment file is deleted.
+ */
+public class ChunkStore {
+    // Segments are mapped as a whole, so they can't be larger than the largest buffer
+    public static final long SEGMENT_SIZE = Math.max(Peer.CHUNK_MAX_SIZE,
+            Math.min(Integer.MAX_VALUE, Long.getLong("sdis.store.segmentSize", 64 * 1024 * 1024)));
+    public static final boolean MMAP = Boolean.parseBoolean(System.getProperty("sdis.store.mmap", "true"));
+    public static final boolean GROUP_COMMIT = Boolean.getBoolean("sdis.store.groupCommit");
+    public static final double COMPACTION_THRESHOLD = Double.parseDouble(System.getProperty("sdis.store.compactionThreshold", "0.5"));
+    public static final long COMPACTION_INTERVAL = Long.getLong("sdis.store.compactionInterval", 5000);
+
+    private static final LongAdder compactedSegments = Metrics.counter("store.compactedSegments");
+    private static final LongAdder compactedBytes = Metrics.counter("store.compactedBytes");
+
+    private static class Segment {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+
+        // Bytes of the segment that have been allocated to chunks, and bytes of the chunks that are still stored
+        volatile long allocated = 0;
+        final AtomicLong liveBytes = new AtomicLong();
+
+        // Chunks that have been allocated in the segment but aren't in the index yet, which compaction wouldn't see
+        final AtomicInteger pendingWrites = new AtomicInteger();
+
+        private MappedByteBuffer mapping;
+
+        Segment(int id, Path path, FileChannel channel) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+        }
+
+        /**
+         * Returns a read-only mapping of the whole segment, which is created the first time a chunk is read from it.
+         */
+        synchronized MappedByteBuffer getMapping() throws IOException {
+            if (mapping == null) {
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, SEGMENT_SIZE);
+            }
+
+            return mapping;
+        }
+    }
+
+    private static class Location {
+        final Segment segment;
+        final long position;
+        final int size;
+
+        Location(Segment segment, long position, int size) {
+            this.segment = segment;
+            this.position = position;
+            this.size = size;
+        }
+    }
+
+    private final Path directory;
+    private final Map<ChunkIdentifier, Location> index = new ConcurrentHashMap<>();
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+
+    // Segment to which chunks are appended, only replaced while holding the lock of the store
+    private Segment activeSegment;
+    private int nextSegmentId = 0;
+
+    // Held while compacting, so that chunks can still be stored in the meantime
+    private final Object compactionLock = new Object();
+
+    private final ChunkCache cache = ChunkCache.BUDGET > 0 ? new ChunkCache() : null;
+    private final GroupCommit groupCommit = GROUP_COMMIT ? new GroupCommit() : null;
+
+    public ChunkStore(Path directory) throws IOException {
+        this.directory = directory;
+
+        // Segments left by a previous run aren't in the index, so they are discarded
+        File[] oldSegments = directory.toFile().listFiles();
+        if (oldSegments != null) {
+            for (File segment : oldSegments) {
+                segment.delete();
+            }
+        }
+        Files.createDirectories(directory);
+
+        Metrics.gauge("store.segments", segments::size);
+        Metrics.gauge("store.segmentBytes", () -> segments.size() * SEGMENT_SIZE);
+        Metrics.gauge("store.liveBytes", () -> segments.values().stream().mapToLong(segment -> segment.liveBytes.get()).sum());
+    }
+
+    /**
+     * Appends a chunk to the active segment (replacing the chunk with the same identifier, if there is one). The
+     * contents of the buffer aren't modified. Returns a future that is completed once the chunk is durable, which is
+     * already completed if group commit is disabled.
+     */
+    public CompletableFuture<Void> put(ChunkIdentifier identifier, ByteBuffer body) throws IOException {
+        Location location = write(body);
+
+        try {
+            invalidate(identifier);
+            Location previous = index.put(identifier, location);
+            if (previous != null) {
+                previous.segment.liveBytes.addAndGet(-previous.size);
+            }
+        }
+        finally {
+            location.segment.pendingWrites.decrementAndGet();
+        }
+
+        return groupCommit != null ? groupCommit.add(location.segment.channel, location.size) : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Returns the contents of a chunk, or null if it isn't stored. The buffer is read-only, and may be a view over a
+     * memory mapping of the segment.
+     */
+    public ByteBuffer read(ChunkIdentifier identifier) throws IOException {
+        if (cache != null) {
+            ByteBuffer body = cache.get(identifier);
+            if (body != null) return body;
+        }
+
+        Location location = index.get(identifier);
+
+        while (location != null) {
+            try {
+                ByteBuffer body = read(location);
+
+                if (cache != null && Peer.state.storedChunksMap.containsKey(identifier)) {
+                    cache.put(identifier, body);
+
+                    // The chunk may have been removed from storedChunksMap (and invalidated) while it was being cached
+                    if (!Peer.state.storedChunksMap.containsKey(identifier)) {
+                        cache.invalidate(identifier);
+                    }
+                }
+
+                return body;
+            }
+            catch (ClosedChannelException ex) {
+                // The segment has been compacted in the meantime, so the chunk may have been moved to another one
+                Location current = index.get(identifier);
+                if (current == location) return null;
+                location = current;
+            }
+        }
+
+        return null;
+    }
+
+    public boolean contains(ChunkIdentifier identifier) {
+        return index.containsKey(identifier);
+    }
+
+    /**
+     * Removes a chunk from the index. Its space is only reclaimed when its segment is compacted.
+     */
+    public void remove(ChunkIdentifier identifier) {
+        invalidate(identifier);
+
+        Location location = index.remove(identifier);
+        if (location != null) {
+            location.segment.liveBytes.addAndGet(-location.size);
+        }
+    }
+
+    /**
+     * Removes every chunk of a file.
+     */
+    public void removeFile(String fileId) {
+        if (cache != null) {
+            cache.invalidateFile(fileId);
+        }
+
+        for (ChunkIdentifier identifier : index.keySet()) {
+            if (identifier.fileId.equals(fileId)) {
+                remove(identifier);
+            }
+        }
+    }
+
+    /**
+     * Drops a chunk from the cache. Must be called whenever a chunk is removed from storedChunksMap.
+     */
+    public void invalidate(ChunkIdentifier identifier) {
+        if (cache != null) {
+            cache.invalidate(identifier);
+        }
+    }
+
+    /**
+     * Compacts the segments that are mostly unused, moving their chunks to the active segment and deleting their
+     * files. Run periodically by the repair executor.
+     */
+    public void compact() {
+        synchronized (compactionLock) {
+            synchronized (this) {
+                // If every chunk of the active segment has been removed, a new segment is started, so that the file of
+                // this one can be deleted
+                if (activeSegment != null && activeSegment.allocated > 0 && activeSegment.liveBytes.get() == 0) {
+                    activeSegment = null;
+                }
+            }
+
+            List<Segment> candidates = new ArrayList<>();
+
+            // Chunks are only allocated in the active segment, so once a segment is no longer active its pending writes
+            // can only finish, and it is compacted in a later run
+            for (Segment segment : segments.values()) {
+                if (segment != getActiveSegment() && segment.pendingWrites.get() == 0 &&
+                        segment.liveBytes.get() < COMPACTION_THRESHOLD * segment.allocated) {
+                    candidates.add(segment);
+                }
+            }
+
+            // The emptiest segments free the most space for the fewest bytes copied
+            candidates.sort(Comparator.comparingLong(segment -> segment.liveBytes.get()));
+
+            for (Segment segment : candidates) {
+                try {
+                    compact(segment);
+                }
+                catch (IOException ex) {
+                    System.err.println("Error when compacting segment " + segment.path + ": " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        Set<Segment> written = new HashSet<>();
+
+        // Empty chunks are never read from their segment, so they don't have to be moved
+        for (Map.Entry<ChunkIdentifier, Location> entry : index.entrySet()) {
+            if (segment.liveBytes.get() == 0) break;
+
+            Location location = entry.getValue();
+            if (location.segment != segment || location.size == 0) continue;
+
+            Location moved = write(read(location));
+            written.add(moved.segment);
+
+            // The chunk may have been removed while it was being copied
+            boolean replaced = index.replace(entry.getKey(), location, moved);
+            moved.segment.pendingWrites.decrementAndGet();
+
+            if (!replaced) {
+                moved.segment.liveBytes.addAndGet(-moved.size);
+                continue;
+            }
+
+            segment.liveBytes.addAndGet(-location.size);
+            compactedBytes.add(location.size);
+        }
+
+        // The copies must be durable before the original chunks are deleted
+        if (GROUP_COMMIT) {
+            for (Segment writtenSegment : written) {
+                try {
+                    writtenSegment.channel.force(false);
+                }
+                catch (ClosedChannelException ex) {
+                    // Compacted in the meantime, and synced then
+                }
+            }
+        }
+
+        segments.remove(segment.id);
+        segment.channel.close();
+        Files.deleteIfExists(segment.path);
+        compactedSegments.increment();
+    }
+
+    private ByteBuffer read(Location location) throws IOException {
+        if (MMAP) {
+            return location.segment.getMapping().slice((int) location.position, location.size);
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(location.size);
+
+        while (body.hasRemaining()) {
+            if (location.segment.channel.read(body, location.position + body.position()) == -1) {
+                throw new IOException("Segment " + location.segment.path + " is shorter than expected");
+            }
+        }
+
+        return body.flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes a chunk to a new region of the active segment. The caller must decrement the pending writes of the
+     * segment once the chunk has been added to the index.
+     */
+    private Location write(ByteBuffer body) throws IOException {
+        ByteBuffer data = body.duplicate();
+        Location location = allocate(data.remaining());
+
+        // Regions are only allocated once, so chunks can be written to the same segment concurrently
+        try {
+            while (data.hasRemaining()) {
+                location.segment.channel.write(data, location.position + location.size - data.remaining());
+            }
+        }
+        catch (IOException ex) {
+            location.segment.liveBytes.addAndGet(-location.size);
+            location.segment.pendingWrites.decrementAndGet();
+            throw ex;
+        }
+
+        return location;
+    }
+
+    private synchronized Segment getActiveSegment() {
+        return activeSegment;
+    }
+
+    private synchronized Location allocate(int size) throws IOException {
+        if (activeSegment == null || activeSegment.allocated + size > SEGMENT_SIZE) {
+            int id = nextSegmentId++;
+            Path path = directory.resolve("segment-" + id);
+
+            // The segment is given its final size up front, so that it doesn't have to grow as chunks are appended
+            RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+            try {
+                file.setLength(SEGMENT_SIZE);
+            }
+            catch (IOException ex) {
+                file.close();
+                throw ex;
+            }
+
+            activeSegment = new Segment(id, path, file.getChannel());
+            segments.put(id, activeSegment);
+        }
+
+        Location location = new Location(activeSegment, activeSegment.allocated, size);
+        activeSegment.allocated += size;
+        activeSegment.liveBytes.addAndGet(size);
+        activeSegment.pendingWrites.incrementAndGet();
+        return location;
+    }
+}
@@ -1,17 +1,88 @@
 package protocol;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 public class FileInformation implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    public static final int HASH_SIZE = 32;
+
     public String fileId;
     public int desiredReplicationDegree;
     public int numChunks;
+    public long size;
 
-    public FileInformation(String fileId, int desiredReplicationDegree, int numChunks) {
+    public FileInformation(String fileId, int desiredReplicationDegree, int numChunks, long size) {
         this.fileId = fileId;
         this.desiredReplicationDegree = desiredReplicationDegree;
         this.numChunks = numChunks;
+        this.size = size;
+    }
+
+    /**
+     * Returns the path of the file with the SHA-256 hash of the contents of each chunk of a file, one after the other
+     * (the hash of a chunk that couldn't be read is all zeros). The hashes can take a lot of space, so they are kept in
+     * this file instead of in memory: it is written as the chunks are backed up (see BackupPipeline), and only exists
+     * once the backup has finished.
+     */
+    public static Path getChunkHashesPath(String fileId) {
+        return Paths.get("peer" + Peer.id, "hashes", fileId);
+    }
+
+    public static void deleteChunkHashes(String fileId) {
+        try {
+            Files.deleteIfExists(getChunkHashesPath(fileId));
+        }
+        catch (IOException ex) {
+            System.err.println("Error when deleting the chunk hashes of file " + fileId + ": " + ex.getMessage());
+        }
+    }
+
+    public boolean hasChunkHashes() {
+        try {
+            return Files.size(getChunkHashesPath(fileId)) == (long) numChunks * HASH_SIZE;
+        }
+        catch (IOException ex) {
+            // The file was backed up before the hashes were recorded, or its backup didn't finish
+            return false;
+        }
+    }
+
+    /**
+     * Returns the hash of a chunk recorded when it was backed up, or null if it wasn't recorded.
+     */
+    private byte[] getChunkHash(int chunkNumber) {
+        ByteBuffer hash = ByteBuffer.allocate(HASH_SIZE);
+
+        try (FileChannel channel = FileChannel.open(getChunkHashesPath(fileId), StandardOpenOption.READ)) {
+            while (hash.hasRemaining()) {
+                if (channel.read(hash, (long) chunkNumber * HASH_SIZE + hash.position()) == -1) return null;
+            }
+        }
+        catch (IOException ex) {
+            return null;
+        }
+
+        byte[] bytes = hash.array();
+        return Arrays.equals(bytes, new byte[HASH_SIZE]) ? null : bytes;
+    }
+
+    /**
+     * Returns whether the hash of a chunk was recorded when it was backed up.
+     */
+    public boolean hasChunkHash(int chunkNumber) {
+        return getChunkHash(chunkNumber) != null;
+    }
+
+    public boolean matchesChunkHash(int chunkNumber, byte[] hash) {
+        return Arrays.equals(getChunkHash(chunkNumber), hash);
     }
 }
@@ -0,0 +1,108 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Restores a file to a path of the peer's file system. Regular files are restored to a new temporary file in the same
+ * directory, which only replaces the file at the path once the whole file has been restored, so a file that is already
+ * there (which may be the original file, from which unchanged chunks are being copied) is never modified if the
+ * restore fails. The temporary file is given its final size up front, so that it doesn't have to grow while the chunks
+ * are written. Other files (such as named pipes) are opened when the first chunk is written, since opening a named
+ * pipe blocks until it is opened for reading too.
+ */
+public class FileRestoreTarget implements RestoreTarget {
+    private final Path path;
+    private final boolean regularFile;
+    private final Path temporaryPath;
+    private volatile FileChannel channel;
+
+    public FileRestoreTarget(Path path, long size) throws IOException {
+        this.path = path;
+        this.regularFile = !Files.exists(path) || Files.isRegularFile(path);
+
+        if (regularFile) {
+            Path directory = path.toAbsolutePath().getParent();
+            temporaryPath = Files.createTempFile(directory, "." + path.getFileName() + ".", ".restoring");
+
+            RandomAccessFile file = new RandomAccessFile(temporaryPath.toFile(), "rw");
+            channel = file.getChannel();
+
+            try {
+                file.setLength(size);
+            }
+            catch (IOException ex) {
+                channel.close();
+                Files.deleteIfExists(temporaryPath);
+                throw ex;
+            }
+        }
+        else {
+            temporaryPath = null;
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers, long position) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        }
+
+        if (regularFile) {
+            channel.position(position);
+        }
+
+        while (hasRemaining(buffers)) {
+            channel.write(buffers);
+        }
+    }
+
+    @Override
+    public void complete(boolean sync) throws IOException {
+        if (channel == null) {
+            // Nothing was written (the file is empty)
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        }
+
+        if (sync && regularFile) {
+            channel.force(true);
+        }
+
+        channel.close();
+
+        if (regularFile) {
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    @Override
+    public void abort(String error) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+
+            // The restored file is incomplete, and the file at the path (if any) hasn't been touched
+            if (regularFile) {
+                Files.deleteIfExists(temporaryPath);
+            }
+        }
+        catch (IOException ex) {
+            System.err.println("Error when deleting restored file " + temporaryPath + ": " + ex.getMessage());
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) return true;
+        }
+
+        return false;
+    }
+}
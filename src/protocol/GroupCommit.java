@@ -0,0 +1,103 @@
+package protocol;
+
+import utils.Metrics;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Makes the chunks written to the chunk store durable in batches, with a single sync of each written file per batch.
+ * A batch is synced sdis.store.syncDelay milliseconds after its first write (which bounds the time a write waits for
+ * its sync), or as soon as sdis.store.syncBytes bytes have been written to it, whichever comes first.
+ */
+public class GroupCommit {
+    public static final long SYNC_DELAY = Long.getLong("sdis.store.syncDelay", 5);
+    public static final long SYNC_BYTES = Long.getLong("sdis.store.syncBytes", 1024 * 1024);
+
+    private static final LongAdder syncs = Metrics.counter("store.syncs");
+    private static final LongAdder syncedWrites = Metrics.counter("store.syncedWrites");
+    private static final LongAdder syncFailures = Metrics.counter("store.syncFailures");
+
+    // Batch that is being filled, completed once all of its writes are durable (null if nothing has been written)
+    private CompletableFuture<Void> batch;
+    private final Set<FileChannel> batchChannels = new HashSet<>();
+    private long batchBytes = 0;
+    private int batchWrites = 0;
+    private ScheduledFuture<?> scheduledSync;
+
+    /**
+     * Adds a write that has already been made to a file to the current batch. Returns a future that is completed once
+     * the write is durable.
+     */
+    public synchronized CompletableFuture<Void> add(FileChannel channel, int bytes) {
+        if (batch == null) {
+            batch = new CompletableFuture<>();
+            scheduledSync = Peer.executor.schedule(this::submitSync, SYNC_DELAY, TimeUnit.MILLISECONDS);
+        }
+
+        CompletableFuture<Void> future = batch;
+        batchChannels.add(channel);
+        batchBytes += bytes;
+        ++batchWrites;
+
+        if (batchBytes >= SYNC_BYTES) {
+            scheduledSync.cancel(false);
+            submitSync();
+        }
+
+        return future;
+    }
+
+    private void submitSync() {
+        CompletableFuture<Void> future;
+        Set<FileChannel> channels;
+        int writes;
+
+        synchronized (this) {
+            if (batch == null) return;
+
+            future = batch;
+            channels = new HashSet<>(batchChannels);
+            writes = batchWrites;
+
+            // Writes from now on go to the next batch
+            batch = null;
+            batchChannels.clear();
+            batchBytes = 0;
+            batchWrites = 0;
+        }
+
+        // The acknowledgements of the chunks wait for the sync, so it runs before the other transfers
+        Peer.transferExecutor.execute(() -> sync(future, channels, writes), PriorityExecutor.HIGH_PRIORITY);
+    }
+
+    private static void sync(CompletableFuture<Void> future, Set<FileChannel> channels, int writes) {
+        try {
+            for (FileChannel channel : channels) {
+                try {
+                    channel.force(false);
+                }
+                catch (ClosedChannelException ex) {
+                    // The segment has been compacted. Compaction only closes a segment once every chunk allocated in
+                    // it is in the index, and it syncs the copies of those chunks first, so they are already durable
+                }
+            }
+        }
+        catch (IOException ex) {
+            syncFailures.increment();
+            future.completeExceptionally(ex);
+            return;
+        }
+
+        syncs.increment();
+        syncedWrites.add(writes);
+        future.complete(null);
+    }
+}
@@ -2,128 +2,145 @@ package protocol;
 
 import chord.ChordNode;
 import chord.ChordNodeInfo;
-import chord.ChordTask;
-import chord.FindSuccessorsThread;
 import jsse.ClientThread;
+import jsse.Connection;
+import jsse.Frame;
 import messages.*;
-import utils.Utils;
-import workers.RestoreChunkThread;
 import workers.StoreChunkThread;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
-import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.Set;
 
 public class HandleReceivedMessageThread extends Thread {
-    private final byte[] messageBytes;
+    private final MessageType type;
+    private final long requestId;
+
+    // A message is received either as a frame, which still has to be decoded, or directly as a message object when
+    // this peer sends it to itself. In the latter case there is no connection.
+    private final Frame frame;
+    private final Message localMessage;
+
+    // Connection through which the frame was received
+    private final Connection connection;
+
+    public HandleReceivedMessageThread(Frame frame, Connection connection) {
+        this.type = frame.type;
+        this.requestId = frame.requestId;
+        this.frame = frame;
+        this.localMessage = null;
+        this.connection = connection;
+    }
 
-    public HandleReceivedMessageThread(byte[] messageBytes) {
-        this.messageBytes = messageBytes;
+    /**
+     * Handles a message sent by this peer to itself, without encoding it.
+     */
+    public HandleReceivedMessageThread(Message message) {
+        this.type = message.getType();
+        this.requestId = message.requestId;
+        this.frame = null;
+        this.localMessage = message;
+        this.connection = null;
     }
 
     @Override
     public void run() {
-        List<byte[]> headerAndBody = Utils.splitMessage(messageBytes);
-
-        if (headerAndBody.size() == 2) {
-            String header = new String(headerAndBody.get(0));
-            byte[] body = headerAndBody.get(1);
-
-            String[] headerComponents = header.split(" ");
-            if (headerComponents.length >= 2) {
-                switch (headerComponents[1]) {
-                    case "FIND_SUCCESSOR": {
-                        FindSuccessorMessage message = FindSuccessorMessage.parse(header, body);
-                        if (message != null) handleFindSuccessorMessage(message);
-                        break;
-                    }
-                    case "SUCCESSOR": {
-                        SuccessorMessage message = SuccessorMessage.parse(header, body);
-                        if (message != null) handleSuccessorMessage(message);
-                        break;
-                    }
-                    case "GET_PREDECESSOR": {
-                        GetPredecessorMessage message = GetPredecessorMessage.parse(header, body);
-                        if (message != null) handleGetPredecessorMessage(message);
-                        break;
-                    }
-                    case "PREDECESSOR": {
-                        PredecessorMessage message = PredecessorMessage.parse(header, body);
-                        if (message != null) handlePredecessorMessage(message);
-                        break;
-                    }
-                    case "NOTIFY": {
-                        NotifyMessage message = NotifyMessage.parse(header, body);
-                        if (message != null) handleNotifyMessage(message);
-                        break;
-                    }
-                    case "GET_SUCCESSOR": {
-                        GetSuccessorMessage message = GetSuccessorMessage.parse(header);
-                        if (message != null) handleGetSuccessorMessage(message);
-                        break;
-                    }
-                    case "NODE_SUCCESSOR": {
-                        NodeSuccessorMessage message = NodeSuccessorMessage.parse(header);
-                        if (message != null) handleNodeSuccessorMessage(message);
-                        break;
-                    }
-                    case "PUT_CHUNK": {
-                        PutChunkMessage message = PutChunkMessage.parse(header, body);
-                        if (message != null) handlePutChunkMessage(message);
-                        break;
-                    }
-                    case "STORED": {
-                        StoredMessage message = StoredMessage.parse(header);
-                        if (message != null) handleStoredMessage(message);
-                        break;
-                    }
-                    case "DELETE": {
-                        DeleteMessage message = DeleteMessage.parse(header);
-                        if (message != null) handleDeleteMessage(message);
-                        break;
-                    }
-                    case "GET_CHUNK": {
-                        GetChunkMessage message = GetChunkMessage.parse(header);
-                        if (message != null) handleGetChunkMessage(message);
-                        break;
-                    }
-                    case "CHUNK": {
-                        ChunkMessage message = ChunkMessage.parse(header, body);
-                        if (message != null) handleChunkMessage(message);
-                        break;
-                    }
-                    case "REMOVED": {
-                        RemovedMessage message = RemovedMessage.parse(header);
-                        if (message != null) handleRemovedMessage(message);
-                        break;
-                    }
-                    case "START_PUT_CHUNK": {
-                        StartPutChunkMessage message = StartPutChunkMessage.parse(header);
-                        if (message != null) handleStartPutChunkMessage(message);
-                        break;
-                    }
-                    default:
-                        break;
-                }
+        Message message = localMessage != null ? localMessage : MessageCodec.decode(type, frame.getPayload());
+        if (message == null) return;
+
+        switch (type) {
+            case FIND_SUCCESSOR:
+                handleFindSuccessorMessage((FindSuccessorMessage) message);
+                break;
+            case SUCCESSOR:
+                handleSuccessorMessage((SuccessorMessage) message);
+                break;
+            case GET_PREDECESSOR:
+                handleGetPredecessorMessage((GetPredecessorMessage) message);
+                break;
+            case PREDECESSOR:
+                handlePredecessorMessage((PredecessorMessage) message);
+                break;
+            case NOTIFY:
+                handleNotifyMessage((NotifyMessage) message);
+                break;
+            case GET_SUCCESSOR:
+                handleGetSuccessorMessage((GetSuccessorMessage) message);
+                break;
+            case NODE_SUCCESSOR:
+                handleNodeSuccessorMessage((NodeSuccessorMessage) message);
+                break;
+            case PUT_CHUNK:
+                handlePutChunkMessage((PutChunkMessage) message);
+                break;
+            case STORED:
+                handleStoredMessage((StoredMessage) message);
+                break;
+            case DELETE:
+                handleDeleteMessage((DeleteMessage) message);
+                break;
+            case GET_CHUNK:
+                handleGetChunkMessage((GetChunkMessage) message);
+                break;
+            case CHUNK:
+                handleChunkMessage((ChunkMessage) message);
+                break;
+            case REMOVED:
+                handleRemovedMessage((RemovedMessage) message);
+                break;
+            case START_PUT_CHUNK:
+                handleStartPutChunkMessage((StartPutChunkMessage) message);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Answers a message that was sent directly by the peer at the specified address, which expects the reply. The
+     * reply is sent back through the connection the message was received from, or through a new ClientThread if that
+     * connection has failed in the meantime.
+     */
+    private void reply(Message reply, InetSocketAddress address) {
+        reply.requestId = requestId;
+
+        if (connection != null) {
+            try {
+                connection.send(new Frame(reply));
+                return;
             }
+            catch (IOException ex) {
+                System.out.println("Couldn't reply through the same connection: " + ex.getMessage());
+            }
+        }
+
+        try {
+            ClientThread thread = new ClientThread(address, reply);
+            Peer.dispatch(thread);
+        }
+        catch (IOException | GeneralSecurityException ex) {
+            System.err.println("Exception occurred when sending " + reply.getType() + " message: " + ex.getMessage());
         }
     }
 
     private void handleFindSuccessorMessage(FindSuccessorMessage message) {
         ChordNode chordNode = Peer.state.chordNode;
+        // The reply must be matched to the request by the initiator, even if the request is forwarded
+        message.requestId = requestId;
 
         long start = chordNode.selfInfo.id;
         long end = chordNode.getSuccessorInfo().id;
 
         if (ChordNode.isKeyBetween(message.key, start, end, false, true)) {
             try {
-                ClientThread thread = new ClientThread(message.initiatorAddress,
-                        new SuccessorMessage(Peer.version, Peer.id, message.key, chordNode.getSuccessorInfo()));
-                Peer.executor.execute(thread);
+                SuccessorMessage successorMessage = new SuccessorMessage(Peer.version, Peer.id, message.key, chordNode.getSuccessorInfo());
+                successorMessage.requestId = message.requestId;
+
+                ClientThread thread = new ClientThread(message.initiatorAddress, successorMessage);
+                Peer.dispatch(thread);
             }
             catch (IOException | GeneralSecurityException ex) {
                 System.err.println("Exception occurred when handling FIND_SUCCESSOR message: " + ex.getMessage());
@@ -132,55 +149,37 @@ public class HandleReceivedMessageThread extends Thread {
         }
 
         ChordNodeInfo closestPrecedingNode = chordNode.getClosestPrecedingNode(message.key);
+
+        if (closestPrecedingNode.equals(chordNode.selfInfo)) {
+            // No finger precedes the key (the finger table isn't up to date yet): forwarding the message to this peer
+            // would make it loop forever, so the successor is the best answer available
+            closestPrecedingNode = chordNode.getSuccessorInfo();
+        }
+
         message.senderId = Peer.id;
 
         try {
             ClientThread thread = new ClientThread(closestPrecedingNode.address, message);
-            Peer.executor.execute(thread);
+            Peer.dispatch(thread);
         }
         catch (IOException | GeneralSecurityException ex) {
             System.err.println("Exception occurred when handling FIND_SUCCESSOR message: " + ex.getMessage());
         }
     }
 
-    public void handleSuccessorMessage(SuccessorMessage message) {
-        ChordNode chordNode = Peer.state.chordNode;
-
-        // Since we are working with modular arithmetic, we need to take precautions when calculating keyDifference
-        long keyDifference = message.key - chordNode.selfInfo.id;
-        if (keyDifference < 0) keyDifference += ChordNode.maxNodes;
-
-        if ((keyDifference & -keyDifference) == keyDifference) {
-            // The key difference is a power of two, update the finger table
-            int index = (int) Math.round(Math.log(keyDifference) / Math.log(2));
-            chordNode.fingerTable.set(index, message.nodeInfo);
-        }
-
-        if (chordNode.tasksMap.containsKey(message.key)) {
-            Queue<ChordTask> taskQueue = chordNode.tasksMap.get(message.key);
-
-            while (!taskQueue.isEmpty()) {
-                taskQueue.remove().execute(message.nodeInfo);
-            }
-        }
+    private void handleSuccessorMessage(SuccessorMessage message) {
+        Peer.pendingRequests.complete(requestId, message);
     }
 
     private void handleGetPredecessorMessage(GetPredecessorMessage message) {
         ChordNode chordNode = Peer.state.chordNode;
 
         PredecessorMessage predecessorMessage = new PredecessorMessage(Peer.version, Peer.id, chordNode.predecessorInfo);
-
-        try {
-            ClientThread thread = new ClientThread(message.nodeInfo.address, predecessorMessage);
-            Peer.executor.execute(thread);
-        }
-        catch (IOException | GeneralSecurityException ex) {
-            System.err.println("Exception occurred when handling GET_PREDECESSOR message: " + ex.getMessage());
-        }
+        reply(predecessorMessage, message.nodeInfo.address);
     }
 
     private void handlePredecessorMessage(PredecessorMessage message) {
-        Peer.state.chordNode.stabilize(message.predecessorInfo);
+        Peer.pendingRequests.complete(requestId, message);
     }
 
     private void handleNotifyMessage(NotifyMessage message) {
@@ -195,48 +194,11 @@ public class HandleReceivedMessageThread extends Thread {
 
     private void handleGetSuccessorMessage(GetSuccessorMessage message) {
         NodeSuccessorMessage nodeSuccessorMessage = new NodeSuccessorMessage(Peer.version, Peer.id, Peer.state.chordNode.getSuccessorInfo());
-
-        try {
-            ClientThread thread = new ClientThread(message.initiatorAddress, nodeSuccessorMessage);
-            Peer.executor.execute(thread);
-        }
-        catch (IOException | GeneralSecurityException ex) {
-            System.err.println("Exception occurred when handling GET_SUCCESSOR message: " + ex.getMessage());
-        }
+        reply(nodeSuccessorMessage, message.initiatorAddress);
     }
 
     private void handleNodeSuccessorMessage(NodeSuccessorMessage message) {
-        ChordNode chordNode = Peer.state.chordNode;
-
-        if (message.successorInfo.equals(chordNode.selfInfo)) {
-            // Traveled around the chord ring, stop the find successors procedure
-            FindSuccessorsThread.procedureFinished = true;
-            return;
-        }
-
-        if (message.successorInfo.equals(chordNode.getSuccessorInfo())) {
-            // Finger table entries might not have been updated yet, stop procedure and try again later
-            FindSuccessorsThread.procedureFinished = true;
-            return;
-        }
-
-        chordNode.successorDeque.add(message.successorInfo);
-        System.out.println("Deque: " + chordNode.successorDeque);
-
-        if (chordNode.successorDeque.size() < ChordNode.numSuccessors) {
-            // Deque is still not full, continue asking for successors
-            GetSuccessorMessage getSuccessorMessage = new GetSuccessorMessage(Peer.version, Peer.id, Peer.address);
-            try {
-                ClientThread thread = new ClientThread(message.successorInfo.address, getSuccessorMessage);
-                Peer.executor.execute(thread);
-            }
-            catch (IOException | GeneralSecurityException ex) {
-                System.err.println("Exception occurred when handling NODE_SUCCESSOR message: " + ex.getMessage());
-            }
-        }
-        else {
-            FindSuccessorsThread.procedureFinished = true;
-        }
+        Peer.pendingRequests.complete(requestId, message);
     }
 
     private void handlePutChunkMessage(PutChunkMessage message) {
@@ -244,7 +206,7 @@ public class HandleReceivedMessageThread extends Thread {
         if (!message.initiatorAddress.equals(Peer.address)) {
             // Store the chunk and send a STORED message to initiator peer
             StoreChunkThread thread = new StoreChunkThread(message);
-            Peer.executor.execute(thread);
+            Peer.transferExecutor.execute(thread, PriorityExecutor.NORMAL_PRIORITY);
             return;
         }
 
@@ -254,65 +216,46 @@ public class HandleReceivedMessageThread extends Thread {
 
     private void handleStoredMessage(StoredMessage message) {
         ChunkIdentifier identifier = new ChunkIdentifier(message.fileId, message.chunkNumber);
-        Peer.state.chunkReplicationDegreeMap.get(identifier).add(message.senderAddress);
+        Set<InetSocketAddress> peers = Peer.state.chunkReplicationDegreeMap.get(identifier);
+        if (peers == null) {
+            // The file has been deleted in the meantime
+            return;
+        }
+
+        peers.add(message.senderAddress);
+
+        BackupPipeline pipeline = Peer.backupPipelines.get(message.fileId);
+        if (pipeline != null) {
+            pipeline.chunkStored(message.chunkNumber, peers.size());
+        }
     }
 
     private void handleDeleteMessage(DeleteMessage message) {
-        // Get folder corresponding to file id
-        String fileId = message.fileId;
-        File folder = new File("peer" + Peer.id + File.separator + fileId);
-
-        if (folder.exists() && folder.isDirectory()) {
-            File[] chunkFiles = folder.listFiles();
-            if (chunkFiles != null) {
-                for (File chunkFile : chunkFiles) {
-                    try {
-                        int chunkNumber = Integer.parseInt(chunkFile.getName());
-                        ChunkIdentifier identifier = new ChunkIdentifier(fileId, chunkNumber);
-                        Peer.state.storedChunksMap.remove(identifier);
-                        chunkFile.delete();
-                    }
-                    catch (NumberFormatException ex) {
-                        System.err.println("Chunk file has invalid name: " + ex.getMessage());
-                    }
-                }
+        for (Map.Entry<ChunkIdentifier, ChunkInformation> entry : Peer.state.storedChunksMap.entrySet()) {
+            if (entry.getKey().fileId.equals(message.fileId)) {
+                Peer.state.removeStoredChunk(entry.getKey(), entry.getValue());
             }
-            folder.delete();
         }
+
+        // The space of the chunks is reclaimed when their segments are compacted (see ChunkStore)
+        Peer.chunkStore.removeFile(message.fileId);
     }
 
     private void handleGetChunkMessage(GetChunkMessage message) {
         ChunkIdentifier identifier = new ChunkIdentifier(message.fileId, message.chunkNumber);
+        // The reply must be matched to the request by the initiator, even if the request is forwarded
+        message.requestId = requestId;
 
         if (Peer.state.storedChunksMap.containsKey(identifier)) {
             try {
-                String path = "peer" + Peer.id + File.separator + message.fileId + File.separator + message.chunkNumber;
-                File chunkFile = new File(path);
-
-                byte[] chunkData = new byte[Peer.CHUNK_MAX_SIZE];
-                int chunkSize = 0;
-
-                boolean readSuccessfully = true;
-                if (chunkFile.length() > 0) {
-                    FileInputStream stream = new FileInputStream(chunkFile);
-
-                    if ((chunkSize = stream.read(chunkData)) <= 0) {
-                        System.err.println("Error when reading from chunk file " + message.chunkNumber + " of file " +
-                                message.fileId);
-                        readSuccessfully = false;
-                    }
-
-                    stream.close();
-                }
-
-                if (readSuccessfully) {
-                    byte[] body = new byte[chunkSize];
-                    System.arraycopy(chunkData, 0, body, 0, chunkSize);
+                ByteBuffer body = Peer.chunkStore.read(identifier);
 
+                if (body != null) {
                     ChunkMessage chunkMessage = new ChunkMessage(Peer.version, Peer.id, message.fileId, message.chunkNumber,
                             body);
+                    chunkMessage.requestId = message.requestId;
                     ClientThread thread = new ClientThread(message.initiatorAddress, chunkMessage);
-                    Peer.executor.execute(thread);
+                    Peer.dispatch(thread);
 
                     return;
                 }
@@ -327,8 +270,16 @@ public class HandleReceivedMessageThread extends Thread {
     }
 
     private void handleChunkMessage(ChunkMessage message) {
-        RestoreChunkThread thread = new RestoreChunkThread(message);
-        Peer.executor.execute(thread);
+        if (Peer.pendingRequests.complete(requestId, message)) {
+            return;
+        }
+
+        // The request has already timed out, but the chunk can still be used if the file is being restored
+        RestorePipeline pipeline = Peer.restorePipelines.get(message.fileId);
+
+        if (pipeline != null) {
+            pipeline.chunkReceived(message);
+        }
     }
 
     private void handleRemovedMessage(RemovedMessage message) {
@@ -342,52 +293,31 @@ public class HandleReceivedMessageThread extends Thread {
 
         try {
             if (Peer.state.storedChunksMap.containsKey(identifier)) {
-                String path = "peer" + Peer.id + File.separator + message.fileId + File.separator + message.chunkNumber;
-                File chunkFile = new File(path);
-
-                byte[] chunkData = new byte[Peer.CHUNK_MAX_SIZE];
-                int chunkSize = 0;
-
-                boolean readSuccessfully = true;
-                if (chunkFile.length() > 0) {
-                    FileInputStream stream = new FileInputStream(chunkFile);
-
-                    if ((chunkSize = stream.read(chunkData)) <= 0) {
-                        System.err.println("Error when reading from chunk file " + message.chunkNumber + " of file " +
-                                message.fileId);
-                        stream.close();
-                        readSuccessfully = false;
-                    }
-                }
-
-                if (readSuccessfully) {
-                    byte[] body = new byte[chunkSize];
-                    System.arraycopy(chunkData, 0, body, 0, chunkSize);
+                ByteBuffer body = Peer.chunkStore.read(identifier);
 
+                if (body == null) {
+                    System.err.println("Error: chunk " + message.chunkNumber + " of file " + message.fileId + " isn't in the chunk store");
+                }
+                else {
                     PutChunkMessage putChunkMessage = new PutChunkMessage(Peer.version, Peer.id, message.fileId,
                             message.chunkNumber, message.replicationDegree, message.initiatorAddress, body);
 
                     long key = ChordNode.generateKey((message.fileId + "_" + message.chunkNumber).getBytes());
 
-                    FindSuccessorMessage findSuccessorMessage = new FindSuccessorMessage(Peer.version, Peer.id, key, Peer.address);
-                    ChordNodeInfo closestPrecedingNode = chordNode.getClosestPrecedingNode(key);
-
-                    chordNode.tasksMap.putIfAbsent(key, new ConcurrentLinkedQueue<>());
-                    chordNode.tasksMap.get(key).add(new ChordTask() {
-                        @Override
-                        public void performTask(ChordNodeInfo successorInfo) {
-                            try {
-                                ClientThread putChunkThread = new ClientThread(successorInfo.address, putChunkMessage);
-                                Peer.executor.execute(putChunkThread);
-                            }
-                            catch (Exception ex) {
-                                System.err.println("Exception when attempting to sent PUT_CHUNK message: " + ex.getMessage());
-                            }
-                        }
-                    });
-
-                    ClientThread thread = new ClientThread(closestPrecedingNode.address, findSuccessorMessage);
-                    Peer.executor.execute(thread);
+                    chordNode.findSuccessor(key)
+                            .thenAccept(successorInfo -> {
+                                try {
+                                    ClientThread putChunkThread = new ClientThread(successorInfo.address, putChunkMessage);
+                                    Peer.dispatch(putChunkThread);
+                                }
+                                catch (Exception ex) {
+                                    System.err.println("Exception when attempting to sent PUT_CHUNK message: " + ex.getMessage());
+                                }
+                            })
+                            .exceptionally(ex -> {
+                                System.err.println("Error when finding successor of chunk: " + ex.getMessage());
+                                return null;
+                            });
                 }
             }
         }
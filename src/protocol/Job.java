@@ -0,0 +1,81 @@
+package protocol;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Backup, restore or delete started by a client, whose progress can be checked through its ID (see
+ * Peer.jobStatus). Jobs are updated by the threads that do their work, so every counter can be updated concurrently.
+ */
+public class Job {
+    // Number of finished jobs that are kept, so that their status can still be checked
+    public static final int MAX_FINISHED_JOBS = 100;
+
+    private static final AtomicLong nextId = new AtomicLong(1);
+
+    public final long id = nextId.getAndIncrement();
+    public final String operation, filePath;
+
+    private final long startTime = System.nanoTime();
+    private volatile long endTime;
+    private volatile JobStatus.State state = JobStatus.State.RUNNING;
+    private volatile String error;
+
+    private volatile int totalChunks;
+    private volatile long totalBytes;
+    private final AtomicInteger chunksDone = new AtomicInteger();
+    private final LongAdder bytesDone = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    public Job(String operation, String filePath) {
+        this.operation = operation;
+        this.filePath = filePath;
+    }
+
+    public void setTotal(int totalChunks, long totalBytes) {
+        this.totalChunks = totalChunks;
+        this.totalBytes = totalBytes;
+    }
+
+    public void chunkDone(long bytes) {
+        chunksDone.incrementAndGet();
+        bytesDone.add(bytes);
+    }
+
+    public int getChunksDone() {
+        return chunksDone.get();
+    }
+
+    public void retry() {
+        retries.increment();
+    }
+
+    public boolean isFinished() {
+        return state != JobStatus.State.RUNNING;
+    }
+
+    public synchronized void complete() {
+        finish(JobStatus.State.COMPLETED, null);
+    }
+
+    public synchronized void fail(String error) {
+        finish(JobStatus.State.FAILED, error);
+    }
+
+    private void finish(JobStatus.State state, String error) {
+        // A job can only finish once, the first outcome is kept
+        if (isFinished()) return;
+
+        this.error = error;
+        this.endTime = System.nanoTime();
+        this.state = state;
+    }
+
+    public synchronized JobStatus getStatus() {
+        long elapsedNanos = (isFinished() ? endTime : System.nanoTime()) - startTime;
+
+        return new JobStatus(id, operation, filePath, state, error, chunksDone.get(), totalChunks, bytesDone.sum(),
+                totalBytes, retries.sum(), elapsedNanos / 1000000);
+    }
+}
@@ -0,0 +1,64 @@
+package protocol;
+
+import java.io.Serializable;
+
+/**
+ * Progress of a backup, restore or delete job at a point in time, as returned to the client by jobStatus.
+ */
+public class JobStatus implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum State { RUNNING, COMPLETED, FAILED }
+
+    public final long id;
+    public final String operation, filePath;
+    public final State state;
+    public final String error;
+
+    public final int chunksDone, totalChunks;
+    public final long bytesDone, totalBytes;
+    public final long retries;
+    public final long elapsedMillis;
+
+    public JobStatus(long id, String operation, String filePath, State state, String error, int chunksDone, int totalChunks,
+                     long bytesDone, long totalBytes, long retries, long elapsedMillis) {
+        this.id = id;
+        this.operation = operation;
+        this.filePath = filePath;
+        this.state = state;
+        this.error = error;
+        this.chunksDone = chunksDone;
+        this.totalChunks = totalChunks;
+        this.bytesDone = bytesDone;
+        this.totalBytes = totalBytes;
+        this.retries = retries;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public boolean isFinished() {
+        return state != State.RUNNING;
+    }
+
+    /**
+     * Returns the average throughput of the job so far, in bytes per second.
+     */
+    public double getThroughput() {
+        return elapsedMillis > 0 ? bytesDone * 1000.0 / elapsedMillis : 0;
+    }
+
+    @Override
+    public String toString() {
+        String status = String.format("Job %d (%s %s): %s%n", id, operation, filePath, state)
+                + String.format("\tChunks: %d / %d%n", chunksDone, totalChunks)
+                + String.format("\tBytes: %d / %d%n", bytesDone, totalBytes)
+                + String.format("\tThroughput: %.2f MB/s%n", getThroughput() / 1e6)
+                + String.format("\tRetries: %d%n", retries)
+                + String.format("\tElapsed time: %.3f s", elapsedMillis / 1000.0);
+
+        if (error != null) {
+            status += String.format("%n\tError: %s", error);
+        }
+
+        return status;
+    }
+}
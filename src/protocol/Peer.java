@@ -6,7 +6,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.net.InetSocketAddress;
 
-import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -20,20 +20,27 @@ import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import chord.ChordNode;
 import client.ClientInterface;
+import client.RestoreSink;
 import jsse.ClientThread;
+import jsse.ConnectionPool;
+import jsse.PendingRequests;
+import jsse.SSLThread;
 import jsse.ServerThread;
 import messages.DeleteMessage;
+import messages.ChunkMessage;
 import messages.GetChunkMessage;
+import messages.MessageType;
+import utils.Metrics;
 import utils.Utils;
 import workers.ReadChunkThread;
 import workers.RemoveChunkThread;
-import workers.StoreChunkThread;
+import workers.RestoreChunkThread;
 
 public class Peer implements ClientInterface {
     public static final int CHUNK_MAX_SIZE = 64000;
@@ -45,133 +52,232 @@ public class Peer implements ClientInterface {
 
     public static String keyStorePath, trustStorePath, password;
 
-    public static final int MAX_THREADS = 25;
-    public static ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(MAX_THREADS);
+    public static final int CONTROL_THREADS = Integer.getInteger("sdis.controlThreads", 8);
+    public static final int TRANSFER_THREADS = Integer.getInteger("sdis.transferThreads", 16);
+    public static final int REPAIR_THREADS = Integer.getInteger("sdis.repairThreads", 4);
+
+    // Control plane: runs the periodic tasks in a pool of platform threads, and the other tasks either in the same pool
+    // or in virtual threads (see PeerExecutor)
+    public static PeerExecutor executor = PeerExecutor.create(CONTROL_THREADS);
+
+    // Data plane: transfers of chunks for backups and restores (restores first, since the user is waiting for them),
+    // and the repair of the replication degree of chunks, which runs with the lowest priority
+    public static final PriorityExecutor transferExecutor = new PriorityExecutor("transfer", TRANSFER_THREADS, Thread.NORM_PRIORITY);
+    public static final PriorityExecutor repairExecutor = new PriorityExecutor("repair", REPAIR_THREADS, Thread.MIN_PRIORITY);
 
     public static PeerState state = new PeerState();
 
-    // List of chunks that have to be read from the file before the corresponding AsynchronousFileChannel is closed
-    public static final ConcurrentHashMap<String, Set<Integer>> chunksToReadMap = new ConcurrentHashMap<>();
+    // Contents of the chunks stored by this peer (their information is in state.storedChunksMap)
+    public static ChunkStore chunkStore;
+
+    // Connections to other peers are kept open and reused by the ClientThreads
+    public static final ConnectionPool connectionPool = new ConnectionPool();
+    public static ServerThread serverThread;
+
+    // Requests waiting for a reply from another peer
+    public static final PendingRequests pendingRequests = new PendingRequests();
 
-    // List of chunks that have to be written to the restored file before the corresponding AsynchronousFileChannel is closed
-    public static final ConcurrentHashMap<String, Set<Integer>> chunksToRestoreMap = new ConcurrentHashMap<>();
+    // Maps file IDs to their backups that are in progress
+    public static final ConcurrentHashMap<String, BackupPipeline> backupPipelines = new ConcurrentHashMap<>();
 
-    // Maps file IDs to their respective AsynchronousFileChannel, which is used by worker threads when restoring the file
-    public static final ConcurrentHashMap<String, AsynchronousFileChannel> restoredFileChannelMap = new ConcurrentHashMap<>();
+    // Maps file IDs to their restores that are in progress
+    public static final ConcurrentHashMap<String, RestorePipeline> restorePipelines = new ConcurrentHashMap<>();
+
+    // Jobs started by clients, by ID (see jobStatus)
+    public static final ConcurrentHashMap<Long, Job> jobsMap = new ConcurrentHashMap<>();
 
     @Override
-    public void backup(String filePath, int replicationDegree) throws RemoteException {
+    public long backup(String filePath, int replicationDegree) throws RemoteException {
         File file = new File(filePath);
+        Job job = createJob("BACKUP", filePath);
 
         if (!file.exists()) {
-            System.err.println("Error: specified file does not exist!");
-            return;
+            return failJob(job, "Error: specified file does not exist!");
         }
 
         if (file.length() > FILE_MAX_SIZE) {
-            System.err.println("Error when backing up file: file size is greater than 64 GB");
-            return;
+            return failJob(job, "Error when backing up file: file size is greater than 64 GB");
         }
 
         if (replicationDegree < 1 || replicationDegree > 9) {
-            System.err.println("Error: replication degree must be a digit between 1 and 9");
-            return;
+            return failJob(job, "Error: replication degree must be a digit between 1 and 9");
         }
 
         try {
-            AsynchronousFileChannel channel = AsynchronousFileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+            FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
 
             String fileId = Utils.calculateFileId(file);
             int numChunks = (int) (file.length() / CHUNK_MAX_SIZE + 1);
+            job.setTotal(numChunks, file.length());
 
             state.desiredReplicationDegreeMap.put(fileId, replicationDegree);
 
-            chunksToReadMap.put(fileId, new HashSet<>());
-
             for (int chunkNumber = 0; chunkNumber < numChunks; ++chunkNumber) {
                 ChunkIdentifier identifier = new ChunkIdentifier(fileId, chunkNumber);
-                chunksToReadMap.get(fileId).add(chunkNumber);
                 state.chunkReplicationDegreeMap.put(identifier, Collections.synchronizedSet(new LinkedHashSet<>()));
             }
 
-            for (int chunkNumber = 0; chunkNumber < numChunks; ++chunkNumber) {
-                ReadChunkThread thread = new ReadChunkThread(channel, fileId, chunkNumber, replicationDegree);
-                executor.execute(thread);
+            // The chunks are read and sent as the previous ones are stored (see BackupPipeline)
+            BackupPipeline pipeline = new BackupPipeline(channel, fileId, file.length(), numChunks, replicationDegree, job);
+            if (!pipeline.start()) {
+                channel.close();
+                return failJob(job, "Error: the specified file is already being backed up");
             }
 
             try {
-                state.backupFilesMap.put(file.getCanonicalPath(), new FileInformation(fileId, replicationDegree, numChunks));
+                state.backupFilesMap.put(file.getCanonicalPath(), new FileInformation(fileId, replicationDegree, numChunks, file.length()));
             }
             catch (IOException ex) {
                 System.err.println("Error when converting to canonical file path: " + ex.getMessage());
             }
         }
         catch (IOException ex) {
-            System.err.println("Error when reading from file: " + ex.getMessage());
+            return failJob(job, "Error when reading from file: " + ex.getMessage());
         }
         catch (NoSuchAlgorithmException ex) {
-            System.err.println("Error when calculating file ID: " + ex.getMessage());
+            return failJob(job, "Error when calculating file ID: " + ex.getMessage());
         }
+
+        return job.id;
     }
 
     @Override
-    public void restore(String filePath) throws RemoteException {
-        File file = new File(filePath);
+    public long restore(String filePath) throws RemoteException {
+        return restore(filePath, 0, Long.MAX_VALUE);
+    }
+
+    @Override
+    public long restore(String filePath, String targetPath) throws RemoteException {
+        return restore(filePath, 0, Long.MAX_VALUE, targetPath);
+    }
+
+    @Override
+    public long restore(String filePath, RestoreSink sink) throws RemoteException {
+        return restore(filePath, 0, Long.MAX_VALUE, sink);
+    }
+
+    @Override
+    public long restore(String filePath, long offset, long length) throws RemoteException {
+        Job job = createJob("RESTORE", filePath);
+
+        FileInformation information = getRestoreInformation(job, filePath, offset, length);
+        if (information == null) return job.id;
+
+        length = Math.min(length, information.size - offset);
+
+        // A range of the file is restored to a file of its own, named after the range
+        String name = new File(filePath).getName();
+        if (length < information.size) {
+            name += "." + offset + "-" + (offset + length);
+        }
+
+        Path path = Paths.get("peer" + id + File.separator + "restored" + File.separator + information.fileId + File.separator + name);
+        path.toFile().getParentFile().mkdirs();
 
+        return startRestore(job, information, offset, length, path);
+    }
+
+    @Override
+    public long restore(String filePath, long offset, long length, String targetPath) throws RemoteException {
+        Job job = createJob("RESTORE", filePath);
+
+        FileInformation information = getRestoreInformation(job, filePath, offset, length);
+        if (information == null) return job.id;
+
+        return startRestore(job, information, offset, Math.min(length, information.size - offset), Paths.get(targetPath));
+    }
+
+    @Override
+    public long restore(String filePath, long offset, long length, RestoreSink sink) throws RemoteException {
+        Job job = createJob("RESTORE", filePath);
+        RestoreTarget target = new RemoteRestoreTarget(sink);
+
+        FileInformation information = getRestoreInformation(job, filePath, offset, length);
+        if (information == null) {
+            // The client is waiting for the sink to be closed
+            target.abort(job.getStatus().error);
+            return job.id;
+        }
+
+        return startRestore(job, information, offset, Math.min(length, information.size - offset), target);
+    }
+
+    /**
+     * Returns the information of a file to be restored, or fails the job and returns null if the file (or the range
+     * of its bytes) can't be restored. The range may go past the end of the file, in which case it is cut short.
+     */
+    private FileInformation getRestoreInformation(Job job, String filePath, long offset, long length) {
         FileInformation information;
         try {
-            information = state.backupFilesMap.get(file.getCanonicalPath());
+            information = state.backupFilesMap.get(new File(filePath).getCanonicalPath());
         }
         catch (IOException ex) {
-            System.err.println("Error when converting to canonical file path: " + ex.getMessage());
-            return;
+            failJob(job, "Error when converting to canonical file path: " + ex.getMessage());
+            return null;
         }
 
         if (information == null) {
-            System.err.println("Error: the specified file wasn't backed up by this peer");
-            return;
+            failJob(job, "Error: the specified file wasn't backed up by this peer");
+            return null;
         }
 
-        Path path = Paths.get("peer" + id + File.separator + "restored" + File.separator + information.fileId + File.separator + file.getName());
-        path.toFile().getParentFile().mkdirs();
+        if (offset < 0 || length < 0 || offset > information.size) {
+            failJob(job, "Error: invalid range (offset " + offset + ", length " + length + ") of a file with " + information.size + " bytes");
+            return null;
+        }
 
-        chunksToRestoreMap.put(information.fileId, ConcurrentHashMap.newKeySet());
-        for (int chunkNumber = 0; chunkNumber < information.numChunks; ++chunkNumber) {
-            chunksToRestoreMap.get(information.fileId).add(chunkNumber);
+        // Checked before creating the restored file, since a file can only be restored by one pipeline at a time
+        if (restorePipelines.containsKey(information.fileId)) {
+            failJob(job, "Error: the specified file is already being restored");
+            return null;
         }
 
+        return information;
+    }
+
+    /**
+     * Opens the original file of a restore, if it is still at the path it was backed up from, so that the chunks that
+     * haven't changed since can be copied from it. Returns null if it can't be used.
+     */
+    private static FileChannel openOriginalFile(String filePath, FileInformation information) {
+        if (!RestorePipeline.LOCAL_FIRST || !new File(filePath).isFile() || !information.hasChunkHashes()) return null;
+
         try {
-            AsynchronousFileChannel channel = AsynchronousFileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
-            restoredFileChannelMap.put(information.fileId, channel);
+            return FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
         }
         catch (IOException ex) {
-            ex.printStackTrace();
-            return;
+            return null;
         }
+    }
 
-        for (int chunkNumber = 0; chunkNumber < information.numChunks; ++chunkNumber) {
-            GetChunkMessage message = new GetChunkMessage(Peer.version, Peer.id, information.fileId, chunkNumber, Peer.address);
-            ChunkIdentifier identifier = new ChunkIdentifier(information.fileId, chunkNumber);
-            InetSocketAddress firstPeerAddress = state.chunkReplicationDegreeMap.get(identifier).iterator().next();
+    private long startRestore(Job job, FileInformation information, long offset, long length, Path path) {
+        RestoreTarget target;
+        try {
+            target = new FileRestoreTarget(path, length);
+        }
+        catch (IOException ex) {
+            return failJob(job, "Error when opening the restored file: " + ex.getMessage());
+        }
 
-            if (firstPeerAddress == null) {
-                System.err.println("Error: no peer has backed up chunk " + chunkNumber + " of file with id " + information.fileId);
-                return;
-            }
+        return startRestore(job, information, offset, length, target);
+    }
 
-            try {
-                ClientThread thread = new ClientThread(firstPeerAddress, message);
-                executor.execute(thread);
-            }
-            catch (IOException | GeneralSecurityException ex) {
-                System.err.println("Error when sending GET_CHUNK message: " + ex.getMessage());
-            }
+    private long startRestore(Job job, FileInformation information, long offset, long length, RestoreTarget target) {
+        // The chunks are requested as the previous ones are written (see RestorePipeline)
+        RestorePipeline pipeline = new RestorePipeline(target, information, openOriginalFile(job.filePath, information), offset, length, job);
+        if (!pipeline.start()) {
+            String error = "Error: the specified file is already being restored";
+            failJob(job, error);
+            target.abort(error);
         }
+
+        return job.id;
     }
 
     @Override
-    public void delete(String filePath) throws RemoteException {
+    public long delete(String filePath) throws RemoteException {
         File file = new File(filePath);
+        Job job = createJob("DELETE", filePath);
 
         FileInformation information;
         try {
@@ -180,82 +286,155 @@ public class Peer implements ClientInterface {
             state.backupFilesMap.remove(canonicalPath);
         }
         catch (IOException ex) {
-            System.out.println("Error when converting to canonical file path: " + ex.getMessage());
-            return;
+            return failJob(job, "Error when converting to canonical file path: " + ex.getMessage());
         }
 
         if (information == null) {
-            System.err.println("Error: the specified file wasn't backed up by this peer");
-            return;
+            return failJob(job, "Error: the specified file wasn't backed up by this peer");
         }
 
+        job.setTotal(information.numChunks, 0);
+
         String fileId = information.fileId;
+
+        // Stop reading the file if it is still being backed up
+        BackupPipeline pipeline = backupPipelines.get(fileId);
+        if (pipeline != null) {
+            pipeline.cancel();
+        }
+        FileInformation.deleteChunkHashes(fileId);
+
         DeleteMessage message = new DeleteMessage(Peer.version, Peer.id, fileId);
 
         Set<InetSocketAddress> peers = new HashSet<>();
 
         for (int chunkNumber = 0; chunkNumber < information.numChunks; ++chunkNumber) {
             ChunkIdentifier identifier = new ChunkIdentifier(fileId, chunkNumber);
-            peers.addAll(state.chunkReplicationDegreeMap.get(identifier));
-            state.chunkReplicationDegreeMap.remove(identifier);
+            Set<InetSocketAddress> chunkPeers = state.chunkReplicationDegreeMap.remove(identifier);
+
+            if (chunkPeers != null) {
+                peers.addAll(chunkPeers);
+            }
+            job.chunkDone(0);
         }
 
         for (InetSocketAddress address : peers) {
             try {
                 ClientThread thread = new ClientThread(address, message);
-                Peer.executor.execute(thread);
+                dispatch(thread);
             }
             catch (IOException | GeneralSecurityException ex) {
                 System.err.println("Error when sending DELETE message: " + ex.getMessage());
             }
         }
+
+        // DELETE messages aren't acknowledged, so the job is finished once they have been sent
+        job.complete();
+        return job.id;
     }
 
     @Override
     public void reclaim(long diskSpace) throws RemoteException {
         if (diskSpace < 0) return;
 
-        // TODO: try to move as much code out of the synchronized block as possible to improve concurrency
-        synchronized (StoreChunkThread.lock) {
-            state.maxDiskSpace = diskSpace * 1000; // diskSpace is specified in KBytes
-            long spaceOccupied = state.getSpaceOccupied();
+        // Set first, so that the chunks stored from now on already fit in the new limit
+        long maxDiskSpace = diskSpace * 1000; // diskSpace is specified in KBytes
+        state.maxDiskSpace = maxDiskSpace;
 
-            if (spaceOccupied > state.maxDiskSpace) {
-                long spaceToFree = spaceOccupied - state.maxDiskSpace, spaceFreed = 0;
+        if (state.getSpaceOccupied() <= maxDiskSpace) return;
 
-                Set<Map.Entry<ChunkIdentifier, ChunkInformation>> entrySet = state.storedChunksMap.entrySet();
-                List<Map.Entry<ChunkIdentifier, ChunkInformation>> sortedEntries = entrySet.stream()
-                        .sorted(Comparator.comparingInt(e -> e.getValue().size))
-                        .collect(Collectors.toList());
+        // Chunks keep being stored while the snapshot is sorted, and are only removed if they haven't changed since
+        Set<Map.Entry<ChunkIdentifier, ChunkInformation>> entrySet = state.storedChunksMap.entrySet();
+        List<Map.Entry<ChunkIdentifier, ChunkInformation>> sortedEntries = entrySet.stream()
+                .map(AbstractMap.SimpleImmutableEntry::new)
+                .sorted(Comparator.comparingInt(e -> e.getValue().size))
+                .collect(Collectors.toList());
 
-                // Iterate in reversed order so that the largest chunks are deleted first
-                for (int i = sortedEntries.size() - 1; i >= 0; --i) {
-                    Map.Entry<ChunkIdentifier, ChunkInformation> entry = sortedEntries.get(i);
-                    ChunkIdentifier identifier = entry.getKey();
-                    InetSocketAddress initiatorAddress = entry.getValue().initiatorAddress;
+        // Iterate in reversed order so that the largest chunks are deleted first
+        for (int i = sortedEntries.size() - 1; i >= 0 && state.getSpaceOccupied() > maxDiskSpace; --i) {
+            Map.Entry<ChunkIdentifier, ChunkInformation> entry = sortedEntries.get(i);
+            ChunkIdentifier identifier = entry.getKey();
+            InetSocketAddress initiatorAddress = entry.getValue().initiatorAddress;
 
-                    System.out.println("Deleting chunk " + identifier.fileId + " | " + identifier.chunkNumber);
+            if (!state.removeStoredChunk(identifier, entry.getValue())) continue;
+            chunkStore.invalidate(identifier);
 
-                    spaceFreed += entry.getValue().size;
-                    state.storedChunksMap.remove(identifier);
+            System.out.println("Deleting chunk " + identifier.fileId + " | " + identifier.chunkNumber);
 
-                    // Create thread to initiate PUT_CHUNK protocol, free disk space and send the REMOVED message
-                    RemoveChunkThread thread = new RemoveChunkThread(identifier, initiatorAddress);
-                    executor.execute(thread);
-
-                    if (spaceFreed >= spaceToFree) {
-                        break;
-                    }
-                }
-            }
+            // Create thread to initiate PUT_CHUNK protocol, free disk space and send the REMOVED message
+            RemoveChunkThread thread = new RemoveChunkThread(identifier, initiatorAddress);
+            repairExecutor.execute(thread);
         }
     }
 
+    @Override
+    public JobStatus jobStatus(long jobId) throws RemoteException {
+        Job job = jobsMap.get(jobId);
+        return job != null ? job.getStatus() : null;
+    }
+
     @Override
     public PeerState state() throws RemoteException {
+        state.metrics = Metrics.snapshot();
         return state;
     }
 
+    private static Job createJob(String operation, String filePath) {
+        Job job = new Job(operation, filePath);
+        jobsMap.put(job.id, job);
+
+        // Forget the oldest finished jobs
+        List<Long> finishedJobIds = jobsMap.values().stream()
+                .filter(Job::isFinished)
+                .map(finishedJob -> finishedJob.id)
+                .sorted()
+                .collect(Collectors.toList());
+
+        for (int i = 0; i < finishedJobIds.size() - Job.MAX_FINISHED_JOBS; ++i) {
+            jobsMap.remove(finishedJobIds.get(i));
+        }
+
+        return job;
+    }
+
+    /**
+     * Prints the reason why a job has failed and marks it as failed. Returns the ID of the job.
+     */
+    public static long failJob(Job job, String error) {
+        System.err.println(error);
+        job.fail(error);
+        return job.id;
+    }
+
+    /**
+     * Runs a task related to a message of the specified type (sending or handling it) in the executor of its plane.
+     * Chord messages are handled by the control plane, and the messages about chunks by the data plane.
+     */
+    public static void dispatch(MessageType type, Runnable task) {
+        switch (type) {
+            case GET_CHUNK:
+            case CHUNK:
+                transferExecutor.execute(task, PriorityExecutor.HIGH_PRIORITY);
+                break;
+            case PUT_CHUNK:
+            case STORED:
+                transferExecutor.execute(task, PriorityExecutor.NORMAL_PRIORITY);
+                break;
+            case START_PUT_CHUNK:
+            case REMOVED:
+            case DELETE:
+            case VERIFY_CHUNK:
+                repairExecutor.execute(task, PriorityExecutor.LOW_PRIORITY);
+                break;
+            default:
+                executor.execute(task);
+        }
+    }
+
+    public static void dispatch(ClientThread thread) {
+        dispatch(thread.getMessageType(), thread);
+    }
+
     public static void printUsage() {
         System.out.println("Usage: Peer <protocol_version> <peer_id> <service_ap> <keystore_path> <truststore_path> <password> <addr> <port> [chord_addr chord_port].");
         System.out.println("When run without the last two arguments, a new Chord network is created.");
@@ -299,15 +478,18 @@ public class Peer implements ClientInterface {
                 if (folder.exists() && folder.isDirectory()) {
                     Path path = folder.toPath();
 
-                    // Delete peer's file system recursively (except the restored
+                    // Delete peer's file system recursively (except the restored files and the hashes of the chunks
+                    // of the files backed up by the peer)
                     Files.walk(path)
-                            .filter(p -> !p.startsWith("peer" + id + File.separator + "restored") || p.endsWith("state.ser"))
+                            .filter(p -> (!p.startsWith("peer" + id + File.separator + "restored") &&
+                                    !p.startsWith("peer" + id + File.separator + "hashes")) || p.endsWith("state.ser"))
                             .sorted(Comparator.reverseOrder())
                             .map(Path::toFile)
                             .forEach(File::delete);
                 }
 
                 state.storedChunksMap = new ConcurrentHashMap<>();
+                state.spaceOccupied = new AtomicLong();
             }
         }
         catch (Exception ex) {
@@ -319,11 +501,28 @@ public class Peer implements ClientInterface {
             state = new PeerState();
         }
 
+        try {
+            chunkStore = new ChunkStore(Paths.get("peer" + id, "chunks"));
+        }
+        catch (IOException ex) {
+            System.err.println("Error when creating the chunk store: " + ex.getMessage());
+            return;
+        }
+
         // Keystore Setup
         keyStorePath = args[3];
         trustStorePath = args[4];
         password = args[5];
 
+        // The SSLContext is created only once and shared by all client and server threads
+        try {
+            SSLThread.initializeContext("TLS", keyStorePath, trustStorePath, password);
+        }
+        catch (GeneralSecurityException | IOException ex) {
+            System.err.println("Error when loading the key store and trust store: " + ex.getMessage());
+            return;
+        }
+
         // Chord Setup
         address = new InetSocketAddress(args[6], Integer.parseInt(args[7]));
         if (address.isUnresolved()) {
@@ -333,7 +532,7 @@ public class Peer implements ClientInterface {
 
         // Start server thread that will listen to messages sent to the specified address and port
         try {
-            ServerThread serverThread = new ServerThread();
+            serverThread = new ServerThread();
             executor.execute(serverThread);
         }
         catch (GeneralSecurityException ex) {
@@ -345,6 +544,14 @@ public class Peer implements ClientInterface {
             return;
         }
 
+        // Periodically close the connections to other peers that haven't been used recently
+        executor.scheduleWithFixedDelay(connectionPool::evictIdleConnections, ConnectionPool.IDLE_TIMEOUT,
+                ConnectionPool.IDLE_TIMEOUT / 2, TimeUnit.MILLISECONDS);
+
+        // Periodically reclaim the space of the chunks that have been deleted or removed
+        executor.scheduleWithFixedDelay(() -> repairExecutor.execute(chunkStore::compact, PriorityExecutor.LOW_PRIORITY),
+                ChunkStore.COMPACTION_INTERVAL, ChunkStore.COMPACTION_INTERVAL, TimeUnit.MILLISECONDS);
+
         state.chordNode = new ChordNode(address);
 
         // Schedule SaveStateThread to run periodically
@@ -0,0 +1,120 @@
+package protocol;
+
+import utils.Metrics;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor used by the control plane of the peer: the Chord maintenance tasks, lookups, failure detection and the
+ * handling of the messages that aren't about chunks. The data plane has its own pools (see PriorityExecutor), so that
+ * the ring keeps being maintained while large files are transferred.
+ *
+ * Periodic tasks are always run by a pool of platform threads. If the sdis.virtualThreads
+ * system property is set to true, every other task (such as handling messages, sending messages and reading or
+ * writing chunks) runs in its own virtual thread instead, so that tasks that block don't hold on to one of the
+ * threads of the pool.
+ *
+ * Virtual threads require Java 21 or newer. With older versions, the peer falls back to the pool of platform threads.
+ */
+public class PeerExecutor extends ScheduledThreadPoolExecutor {
+    public static final boolean USE_VIRTUAL_THREADS = Boolean.getBoolean("sdis.virtualThreads");
+
+    // Number of platform threads used for the periodic tasks when the other tasks run in virtual threads
+    public static final int SCHEDULER_THREADS = Integer.getInteger("sdis.schedulerThreads", 4);
+
+    private final ExecutorService virtualThreadExecutor;
+
+    private PeerExecutor(int platformThreads, ExecutorService virtualThreadExecutor) {
+        super(platformThreads, createThreadFactory("control", Thread.NORM_PRIORITY + 1));
+        this.virtualThreadExecutor = virtualThreadExecutor;
+    }
+
+    /**
+     * Creates the executor of the peer, with the specified number of platform threads if the tasks don't run in
+     * virtual threads.
+     */
+    public static PeerExecutor create(int platformThreads) {
+        ExecutorService virtualThreadExecutor = USE_VIRTUAL_THREADS ? createVirtualThreadExecutor() : null;
+        Metrics.gauge("executor.virtualThreads", () -> virtualThreadExecutor != null ? 1 : 0);
+
+        PeerExecutor executor;
+        if (virtualThreadExecutor != null) {
+            System.out.println("Running tasks in virtual threads.");
+            executor = new PeerExecutor(SCHEDULER_THREADS, virtualThreadExecutor);
+        }
+        else {
+            executor = new PeerExecutor(platformThreads, null);
+        }
+
+        // Also includes the periodic tasks that are waiting for their next run
+        Metrics.gauge("executor.control.queueDepth", () -> executor.getQueue().size());
+        Metrics.gauge("executor.control.activeThreads", executor::getActiveCount);
+
+        return executor;
+    }
+
+    /**
+     * Returns a factory of threads with the specified name (followed by a number) and priority. If the
+     * sdis.virtualThreads system property is set to true and virtual threads are available, the factory creates
+     * virtual threads instead, whose priority can't be changed.
+     */
+    public static ThreadFactory createThreadFactory(String name, int priority) {
+        if (USE_VIRTUAL_THREADS) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            }
+            catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+                // Fall back to platform threads, the peer already warns about it when creating its executor
+            }
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + threadNumber.getAndIncrement());
+            thread.setPriority(priority);
+            return thread;
+        };
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.execute(command);
+        }
+        else {
+            super.execute(command);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Returns an executor that starts a new virtual thread for each task, or null if this version of Java doesn't
+     * support virtual threads. The executor is obtained through reflection so that the peer can still be compiled
+     * and run with older versions.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+            System.err.println("Virtual threads aren't available in this version of Java, using platform threads instead");
+            return null;
+        }
+    }
+}
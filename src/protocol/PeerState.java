@@ -4,16 +4,51 @@ import chord.ChordNode;
 
 import java.io.Serializable;
 import java.net.InetSocketAddress;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PeerState implements Serializable {
     public ChordNode chordNode;
 
-    public Long maxDiskSpace = null;
+    public volatile Long maxDiskSpace = null;
+
+    // Sum of the sizes of the chunks in storedChunksMap, which is only changed through reserveSpace and releaseSpace
+    public AtomicLong spaceOccupied = new AtomicLong();
 
     public long getSpaceOccupied() {
-        return storedChunksMap.values().stream().mapToInt((chunk -> chunk.size)).sum();
+        return spaceOccupied.get();
+    }
+
+    /**
+     * Reserves space for a chunk that is about to be stored. Returns false if it doesn't fit in maxDiskSpace, in which
+     * case nothing is reserved.
+     */
+    public boolean reserveSpace(long bytes) {
+        while (true) {
+            long occupied = spaceOccupied.get();
+            Long maxSpace = maxDiskSpace;
+
+            if (maxSpace != null && occupied + bytes > maxSpace) return false;
+            if (spaceOccupied.compareAndSet(occupied, occupied + bytes)) return true;
+        }
+    }
+
+    public void releaseSpace(long bytes) {
+        spaceOccupied.addAndGet(-bytes);
+    }
+
+    /**
+     * Removes a chunk from storedChunksMap and releases its space, unless it has already been removed (or replaced).
+     * Returns whether it was removed.
+     */
+    public boolean removeStoredChunk(ChunkIdentifier identifier, ChunkInformation information) {
+        if (!storedChunksMap.remove(identifier, information)) return false;
+
+        releaseSpace(information.size);
+        return true;
     }
 
     // For each file ID + chunk number, this hash map stores a set with the addresses and ports of all peers who have
@@ -28,4 +63,7 @@ public class PeerState implements Serializable {
 
     // Hash map containing information about chunks this peer is backing up
     public ConcurrentHashMap<ChunkIdentifier, ChunkInformation> storedChunksMap = new ConcurrentHashMap<>();
+
+    // Values of the peer's metrics (see utils.Metrics), updated whenever the state is requested
+    public Map<String, Long> metrics = new TreeMap<>();
 }
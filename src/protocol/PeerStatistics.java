@@ -0,0 +1,94 @@
+package protocol;
+
+import utils.Metrics;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Response times and throughput of the chunk requests sent to each of the other peers, used to choose which peer to
+ * request a chunk from and when to send a hedged request. The statistics of each peer are reported in the metrics,
+ * as peers.<address>.latencyMillis, peers.<address>.throughputKBps and peers.<address>.outstandingRequests.
+ */
+public class PeerStatistics {
+    // Weight of each new sample in the moving averages
+    private static final double SMOOTHING_FACTOR = 0.2;
+
+    // Number of recent response times (of every peer) kept to compute percentiles
+    private static final int LATENCY_SAMPLES = 256;
+
+    private static final LongAdder failedRequests = Metrics.counter("restore.failedRequests");
+
+    private static final ConcurrentHashMap<InetSocketAddress, PeerStatistics> statisticsMap = new ConcurrentHashMap<>();
+
+    private static final long[] recentLatencies = new long[LATENCY_SAMPLES];
+    private static int numLatencies = 0, nextLatency = 0;
+
+    private final AtomicInteger outstandingRequests = new AtomicInteger();
+
+    // Moving averages of the response time (in milliseconds) and of the throughput (in bytes per millisecond)
+    private volatile double latency = 0, throughput = 0;
+
+    public static PeerStatistics get(InetSocketAddress address) {
+        return statisticsMap.computeIfAbsent(address, k -> {
+            PeerStatistics statistics = new PeerStatistics();
+            String prefix = "peers." + address.getAddress().getHostAddress() + ":" + address.getPort() + ".";
+
+            Metrics.gauge(prefix + "latencyMillis", () -> Math.round(statistics.latency));
+            Metrics.gauge(prefix + "throughputKBps", () -> Math.round(statistics.throughput));
+            Metrics.gauge(prefix + "outstandingRequests", statistics.outstandingRequests::get);
+
+            return statistics;
+        });
+    }
+
+    /**
+     * Returns the response time (in milliseconds) below which the specified percentage of the recent responses of
+     * every peer arrived, or -1 if there aren't enough samples yet.
+     */
+    public static synchronized long getLatencyPercentile(double percentile) {
+        if (numLatencies < LATENCY_SAMPLES / 8) return -1;
+
+        long[] latencies = Arrays.copyOf(recentLatencies, numLatencies);
+        Arrays.sort(latencies);
+
+        int index = (int) Math.ceil(percentile / 100 * numLatencies) - 1;
+        return latencies[Math.max(0, Math.min(index, numLatencies - 1))];
+    }
+
+    private static synchronized void addLatencySample(long latency) {
+        recentLatencies[nextLatency] = latency;
+        nextLatency = (nextLatency + 1) % LATENCY_SAMPLES;
+        numLatencies = Math.min(numLatencies + 1, LATENCY_SAMPLES);
+    }
+
+    public void requestSent() {
+        outstandingRequests.incrementAndGet();
+    }
+
+    public void responseReceived(long latencyMillis, int bytes) {
+        outstandingRequests.decrementAndGet();
+        addLatencySample(latencyMillis);
+
+        latency = latency == 0 ? latencyMillis : latency + SMOOTHING_FACTOR * (latencyMillis - latency);
+
+        double sampleThroughput = (double) bytes / Math.max(1, latencyMillis);
+        throughput = throughput == 0 ? sampleThroughput : throughput + SMOOTHING_FACTOR * (sampleThroughput - throughput);
+    }
+
+    public void requestFailed() {
+        outstandingRequests.decrementAndGet();
+        failedRequests.increment();
+    }
+
+    public int getOutstandingRequests() {
+        return outstandingRequests.get();
+    }
+
+    public double getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,77 @@
+package protocol;
+
+import utils.Metrics;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of threads used by the data plane of the peer (transferring and repairing chunks). Waiting tasks are
+ * run by priority, and tasks with the same priority are run in the order in which they were submitted. The number of
+ * waiting tasks and active threads of each pool are reported in the metrics, as executor.<name>.queueDepth and
+ * executor.<name>.activeThreads.
+ */
+public class PriorityExecutor extends ThreadPoolExecutor {
+    public static final int HIGH_PRIORITY = 2;
+    public static final int NORMAL_PRIORITY = 1;
+    public static final int LOW_PRIORITY = 0;
+
+    private static final long KEEP_ALIVE_TIME = 30;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Creates a pool with the specified number of threads, which run with the specified thread priority (only a hint
+     * to the scheduler of the operating system).
+     */
+    public PriorityExecutor(String name, int threads, int threadPriority) {
+        super(threads, threads, KEEP_ALIVE_TIME, TimeUnit.SECONDS, new PriorityBlockingQueue<>(),
+                PeerExecutor.createThreadFactory(name, threadPriority));
+        allowCoreThreadTimeOut(true);
+
+        Metrics.gauge("executor." + name + ".queueDepth", () -> getQueue().size());
+        Metrics.gauge("executor." + name + ".activeThreads", this::getActiveCount);
+    }
+
+    public void execute(Runnable command, int priority) {
+        super.execute(new PrioritizedTask(command, priority, sequence.getAndIncrement()));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command instanceof PrioritizedTask) {
+            super.execute(command);
+        }
+        else {
+            execute(command, NORMAL_PRIORITY);
+        }
+    }
+
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Runnable task;
+        private final int priority;
+        private final long sequence;
+
+        PrioritizedTask(Runnable task, int priority, long sequence) {
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
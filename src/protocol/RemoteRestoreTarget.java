@@ -0,0 +1,50 @@
+package protocol;
+
+import client.RestoreSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+
+/**
+ * Streams a file that is being restored to a sink exported by the client through RMI, without writing it to the
+ * peer's disk. Each write is a remote call, which only returns once the client has received the data, so the chunks
+ * waiting to be sent are bounded by the restore window.
+ */
+public class RemoteRestoreTarget implements RestoreTarget {
+    private final RestoreSink sink;
+
+    public RemoteRestoreTarget(RestoreSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers, long position) throws IOException {
+        int size = 0;
+        for (ByteBuffer buffer : buffers) {
+            size += buffer.remaining();
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(size);
+        for (ByteBuffer buffer : buffers) {
+            data.put(buffer);
+        }
+
+        sink.write(data.array());
+    }
+
+    @Override
+    public void complete(boolean sync) throws IOException {
+        sink.close(null);
+    }
+
+    @Override
+    public void abort(String error) {
+        try {
+            sink.close(error);
+        }
+        catch (RemoteException ex) {
+            System.err.println("Error when closing the client's restore sink: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package protocol;
+
+import chord.ChordNode;
+import messages.ChunkMessage;
+import messages.GetChunkMessage;
+import utils.Metrics;
+import workers.CopyLocalChunkThread;
+import workers.RestoreChunkThread;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Restore of a file (or of a range of its bytes) that is in progress. Only the chunks that cover the range are
+ * requested, in order, while the chunks in flight (requested but not yet written to the target) fit in a window of
+ * sdis.restore.windowChunks chunks. The parts of the first and last chunks outside the range aren't written.
+ *
+ * Each chunk is requested from the peer that stores it with the fewest outstanding requests (and then the lowest
+ * response time), so that the requests are spread across every replica. If the chunk hasn't arrived after the
+ * sdis.restore.hedgePercentile percentile of the recent response times, a hedged request is sent to another peer
+ * that stores it, and the first reply to arrive is used.
+ *
+ * Requests that aren't answered within sdis.restore.chunkTimeout milliseconds (or fail) are sent again to another peer
+ * that stores the chunk. Once every known holder has been asked, the chunk is requested from the successor of its key,
+ * from where the GET_CHUNK message goes around the ring until a peer that stores the chunk is found. A chunk is
+ * requested at most sdis.restore.maxAttempts times. If a chunk can't be restored, or the whole file isn't restored
+ * within sdis.restore.deadline milliseconds, the restore fails: the restored file is closed and deleted, and the
+ * restore is forgotten.
+ *
+ * If the original file is still at the path it was backed up from (and sdis.restore.localFirst isn't set to false),
+ * each chunk is first read from it, and only requested from other peers if its contents don't match the hash recorded
+ * when the chunk was backed up (see CopyLocalChunkThread). Chunks are compared one by one, so a file that has been
+ * partly modified since the backup only has its modified chunks fetched through the network.
+ *
+ * Chunks that arrive out of order wait in a reorder buffer (bounded by the window), and a single RestoreChunkThread
+ * writes each run of consecutive chunks to the target (see RestoreTarget) with one sequential write of up to
+ * sdis.restore.maxWriteChunks chunks. If the sdis.restore.fsync system property is set to true, restored files are
+ * synced to the disk once, after the last chunk has been written.
+ */
+public class RestorePipeline {
+    public static final int WINDOW_CHUNKS = Integer.getInteger("sdis.restore.windowChunks", 32);
+    public static final double HEDGE_PERCENTILE = Double.parseDouble(System.getProperty("sdis.restore.hedgePercentile", "95"));
+
+    // Bounds of the delay before sending a hedged request (in milliseconds), the upper one is used until there are
+    // enough response times to compute the percentile
+    public static final long MIN_HEDGE_DELAY = Long.getLong("sdis.restore.minHedgeDelay", 20);
+    public static final long MAX_HEDGE_DELAY = 1000;
+
+    public static final long CHUNK_TIMEOUT = Long.getLong("sdis.restore.chunkTimeout", 5000);
+    public static final int MAX_ATTEMPTS = Integer.getInteger("sdis.restore.maxAttempts", 5);
+    public static final long DEADLINE = Long.getLong("sdis.restore.deadline", 3600000);
+
+    public static final int MAX_WRITE_CHUNKS = Integer.getInteger("sdis.restore.maxWriteChunks", 16);
+    public static final boolean FSYNC = Boolean.getBoolean("sdis.restore.fsync");
+    public static final boolean LOCAL_FIRST = Boolean.parseBoolean(System.getProperty("sdis.restore.localFirst", "true"));
+
+    private static final LongAdder hedgedRequests = Metrics.counter("restore.hedgedRequests");
+    private static final LongAdder duplicateChunks = Metrics.counter("restore.duplicateChunks");
+    private static final LongAdder retriedRequests = Metrics.counter("restore.retriedRequests");
+    private static final LongAdder chunkLookups = Metrics.counter("restore.chunkLookups");
+    private static final LongAdder expiredRestores = Metrics.counter("restore.expired");
+    private static final LongAdder writes = Metrics.counter("restore.writes");
+    private static final LongAdder chunksWrittenCounter = Metrics.counter("restore.chunksWritten");
+    private static final LongAdder localChunks = Metrics.counter("restore.localChunks");
+    private static final LongAdder changedLocalChunks = Metrics.counter("restore.changedLocalChunks");
+
+    public final String fileId;
+    public final FileInformation information;
+    public final RestoreTarget target;
+
+    // Original file, from where unchanged chunks are copied (null if it isn't available)
+    public final FileChannel source;
+    public final Job job;
+
+    private static class ChunkRequest {
+        final Set<InetSocketAddress> peersAsked = new HashSet<>();
+        ScheduledFuture<?> hedge;
+        int pending = 0, attempts = 0;
+        boolean lookedUp = false;
+    }
+
+    // Range of bytes of the file that is restored, and the chunks that cover it (from firstChunk to endChunk - 1)
+    private final long offset, length;
+    private final int firstChunk, endChunk;
+
+    private ScheduledFuture<?> deadline;
+
+    // Chunks that have been requested and haven't arrived yet
+    private final Map<Integer, ChunkRequest> requestsMap = new HashMap<>();
+    private int nextChunk, chunksInFlight = 0;
+
+    // Chunks that have arrived but can't be written yet, because a previous chunk is missing
+    private final TreeMap<Integer, ChunkMessage> reorderBuffer = new TreeMap<>();
+    private int nextChunkToWrite;
+    private boolean writing = false;
+
+    public RestorePipeline(RestoreTarget target, FileInformation information, FileChannel source, long offset, long length, Job job) {
+        this.target = target;
+        this.information = information;
+        this.fileId = information.fileId;
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+        this.job = job;
+
+        firstChunk = (int) (offset / Peer.CHUNK_MAX_SIZE);
+        endChunk = length == 0 ? firstChunk : (int) ((offset + length - 1) / Peer.CHUNK_MAX_SIZE + 1);
+        nextChunk = nextChunkToWrite = firstChunk;
+
+        job.setTotal(endChunk - firstChunk, length);
+    }
+
+    /**
+     * Starts requesting the first chunks of the file. Returns false if the same file is already being restored.
+     */
+    public boolean start() {
+        if (Peer.restorePipelines.putIfAbsent(fileId, this) != null) {
+            closeSource();
+            return false;
+        }
+
+        synchronized (this) {
+            // Nothing has to be requested to restore an empty range
+            if (firstChunk == endChunk) {
+                complete();
+                return true;
+            }
+
+            deadline = Peer.executor.schedule(this::expire, DEADLINE, TimeUnit.MILLISECONDS);
+            fillWindow();
+        }
+        return true;
+    }
+
+    private synchronized void fillWindow() {
+        while (nextChunk < endChunk && chunksInFlight < WINDOW_CHUNKS && !job.isFinished()) {
+            int chunkNumber = nextChunk++;
+            ++chunksInFlight;
+
+            ChunkRequest request = new ChunkRequest();
+            requestsMap.put(chunkNumber, request);
+
+            if (source != null && information.hasChunkHash(chunkNumber)) {
+                Peer.transferExecutor.execute(new CopyLocalChunkThread(this, chunkNumber), PriorityExecutor.NORMAL_PRIORITY);
+                continue;
+            }
+
+            if (!requestChunk(chunkNumber, request)) {
+                fail("Error: no peer has backed up chunk " + chunkNumber + " of file with id " + fileId);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Requests a chunk from the best peer that stores it and hasn't been asked for it yet or, if there is no such
+     * peer, from the successor of its key. Returns false if the chunk can't be requested again.
+     */
+    private boolean requestChunk(int chunkNumber, ChunkRequest request) {
+        if (request.attempts >= MAX_ATTEMPTS) return false;
+
+        Optional<InetSocketAddress> holder = chooseHolder(chunkNumber, request);
+        if (holder.isPresent()) {
+            sendRequest(chunkNumber, request, holder.get());
+            return true;
+        }
+
+        if (!request.lookedUp) {
+            request.lookedUp = true;
+            lookUpChunk(chunkNumber, request);
+            return true;
+        }
+
+        return false;
+    }
+
+    private Optional<InetSocketAddress> chooseHolder(int chunkNumber, ChunkRequest request) {
+        Set<InetSocketAddress> peers = Peer.state.chunkReplicationDegreeMap.get(new ChunkIdentifier(fileId, chunkNumber));
+        if (peers == null) return Optional.empty();
+
+        synchronized (peers) {
+            return peers.stream()
+                    .filter(address -> !request.peersAsked.contains(address))
+                    .min(Comparator.<InetSocketAddress>comparingInt(address -> PeerStatistics.get(address).getOutstandingRequests())
+                            .thenComparingDouble(address -> PeerStatistics.get(address).getLatency()));
+        }
+    }
+
+    private void lookUpChunk(int chunkNumber, ChunkRequest request) {
+        long key;
+        try {
+            key = ChordNode.generateKey((fileId + "_" + chunkNumber).getBytes());
+        }
+        catch (NoSuchAlgorithmException ex) {
+            System.err.println(ex.getMessage());
+            return;
+        }
+
+        chunkLookups.increment();
+
+        // The lookup counts as a pending request, so that the chunk isn't given up on while it is in progress
+        ++request.pending;
+
+        Peer.state.chordNode.findSuccessor(key)
+                .whenComplete((successorInfo, ex) -> {
+                    synchronized (this) {
+                        if (ex != null) {
+                            requestFailed(chunkNumber, ex);
+                        }
+                        else if (requestsMap.get(chunkNumber) == request) {
+                            --request.pending;
+                            sendRequest(chunkNumber, request, successorInfo.address);
+                        }
+                    }
+                });
+    }
+
+    private void sendRequest(int chunkNumber, ChunkRequest request, InetSocketAddress address) {
+        PeerStatistics statistics = PeerStatistics.get(address);
+
+        request.peersAsked.add(address);
+        ++request.pending;
+        ++request.attempts;
+        statistics.requestSent();
+
+        GetChunkMessage message = new GetChunkMessage(Peer.version, Peer.id, fileId, chunkNumber, Peer.address);
+        long sendTime = System.nanoTime();
+
+        Peer.pendingRequests.send(address, message, ChunkMessage.class, CHUNK_TIMEOUT)
+                .whenComplete((reply, ex) -> {
+                    if (ex != null) {
+                        statistics.requestFailed();
+                        requestFailed(chunkNumber, ex);
+                    }
+                    else {
+                        statistics.responseReceived((System.nanoTime() - sendTime) / 1000000, reply.body.remaining());
+                        chunkReceived(reply);
+                    }
+                });
+
+        if (request.hedge == null) {
+            request.hedge = Peer.executor.schedule(() -> sendHedgedRequest(chunkNumber), getHedgeDelay(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static long getHedgeDelay() {
+        long percentile = PeerStatistics.getLatencyPercentile(HEDGE_PERCENTILE);
+        return percentile < 0 ? MAX_HEDGE_DELAY : Math.max(MIN_HEDGE_DELAY, Math.min(MAX_HEDGE_DELAY, percentile));
+    }
+
+    private synchronized void sendHedgedRequest(int chunkNumber) {
+        ChunkRequest request = requestsMap.get(chunkNumber);
+        if (request == null || job.isFinished() || request.attempts >= MAX_ATTEMPTS) return;
+
+        // Hedged requests are only sent to known holders of the chunk
+        Optional<InetSocketAddress> holder = chooseHolder(chunkNumber, request);
+        if (holder.isPresent()) {
+            hedgedRequests.increment();
+            sendRequest(chunkNumber, request, holder.get());
+        }
+    }
+
+    /**
+     * Called when a chunk of this file arrives, even if its request has already timed out. Only the first copy of each
+     * chunk is written, the others (replies to hedged requests) are dropped.
+     */
+    public synchronized void chunkReceived(ChunkMessage message) {
+        if (job.isFinished()) return;
+
+        ChunkRequest request = requestsMap.remove(message.chunkNumber);
+
+        if (request == null) {
+            duplicateChunks.increment();
+            return;
+        }
+
+        if (request.hedge != null) {
+            request.hedge.cancel(false);
+        }
+
+        reorderBuffer.put(message.chunkNumber, message);
+
+        if (!writing && message.chunkNumber == nextChunkToWrite) {
+            writing = true;
+            Peer.transferExecutor.execute(new RestoreChunkThread(this), PriorityExecutor.HIGH_PRIORITY);
+        }
+    }
+
+    /**
+     * Called by CopyLocalChunkThread when a chunk read from the original file matches its hash.
+     */
+    public void localChunkRead(ChunkMessage message) {
+        localChunks.increment();
+        chunkReceived(message);
+    }
+
+    /**
+     * Called by CopyLocalChunkThread when a chunk of the original file has changed (or can't be read), so it has to
+     * be requested from the other peers.
+     */
+    public synchronized void localChunkChanged(int chunkNumber) {
+        ChunkRequest request = requestsMap.get(chunkNumber);
+        if (request == null || job.isFinished()) return;
+
+        changedLocalChunks.increment();
+
+        if (!requestChunk(chunkNumber, request)) {
+            fail("Error: no peer has backed up chunk " + chunkNumber + " of file with id " + fileId);
+        }
+    }
+
+    /**
+     * Returns the next run of consecutive chunks that RestoreChunkThread should write, or null if the next chunk
+     * hasn't arrived yet (in which case the thread stops).
+     */
+    public synchronized List<ChunkMessage> nextRun() {
+        List<ChunkMessage> run = new ArrayList<>();
+
+        while (run.size() < MAX_WRITE_CHUNKS && !job.isFinished() && reorderBuffer.containsKey(nextChunkToWrite)) {
+            ChunkMessage message = reorderBuffer.remove(nextChunkToWrite++);
+            run.add(message);
+
+            // The chunks of a run are written back to back, so only the last one may be smaller than the maximum size
+            // (the first one may start after the beginning of the chunk, if the range does)
+            if (message.body.remaining() < Peer.CHUNK_MAX_SIZE || nextChunkToWrite == endChunk) break;
+        }
+
+        if (run.isEmpty()) {
+            writing = false;
+            return null;
+        }
+
+        return run;
+    }
+
+    /**
+     * Returns the part of the body of a chunk that is inside the restored range.
+     */
+    public ByteBuffer getRange(ChunkMessage message) {
+        long chunkStart = (long) Peer.CHUNK_MAX_SIZE * message.chunkNumber;
+        ByteBuffer body = message.body.duplicate();
+
+        int start = (int) Math.max(0, offset - chunkStart);
+        int end = (int) Math.min(body.remaining(), offset + length - chunkStart);
+
+        body.position(body.position() + Math.min(start, end));
+        body.limit(body.position() + Math.max(0, end - start));
+        return body;
+    }
+
+    /**
+     * Returns the position of the target where the range of a chunk (see getRange) is written.
+     */
+    public long getTargetPosition(int chunkNumber) {
+        return Math.max(0, (long) Peer.CHUNK_MAX_SIZE * chunkNumber - offset);
+    }
+
+    private synchronized void requestFailed(int chunkNumber, Throwable cause) {
+        ChunkRequest request = requestsMap.get(chunkNumber);
+
+        // The chunk has already arrived, or another request for it may still succeed
+        if (request == null || --request.pending > 0 || job.isFinished()) return;
+
+        if (requestChunk(chunkNumber, request)) {
+            retriedRequests.increment();
+            job.retry();
+        }
+        else {
+            fail("Error when requesting chunk " + chunkNumber + " (" + request.attempts + " attempts): " + cause.getMessage());
+        }
+    }
+
+    private synchronized void expire() {
+        if (job.isFinished()) return;
+
+        expiredRestores.increment();
+        fail("Error: the restore of file " + fileId + " didn't finish within " + DEADLINE + " ms");
+    }
+
+    /**
+     * Called by RestoreChunkThread once a run of chunks has been written to the restored file.
+     */
+    public synchronized void runWritten(List<ChunkMessage> run) {
+        if (job.isFinished()) return;
+
+        writes.increment();
+        chunksWrittenCounter.add(run.size());
+
+        for (ChunkMessage message : run) {
+            job.chunkDone(getRange(message).remaining());
+        }
+
+        chunksInFlight -= run.size();
+
+        if (nextChunkToWrite < endChunk) {
+            fillWindow();
+            return;
+        }
+
+        complete();
+    }
+
+    private void complete() {
+        try {
+            target.complete(FSYNC);
+        }
+        catch (IOException ex) {
+            fail("Error when finishing the restore of file " + fileId + ": " + ex.getMessage());
+            return;
+        }
+
+        finish();
+        job.complete();
+    }
+
+    public synchronized void fail(String error) {
+        if (job.isFinished()) return;
+
+        Peer.failJob(job, error);
+        finish();
+        target.abort(error);
+    }
+
+    private void finish() {
+        Peer.restorePipelines.remove(fileId, this);
+
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+
+        for (ChunkRequest request : requestsMap.values()) {
+            if (request.hedge != null) {
+                request.hedge.cancel(false);
+            }
+        }
+        requestsMap.clear();
+        reorderBuffer.clear();
+        closeSource();
+    }
+
+    private void closeSource() {
+        if (source != null) {
+            try {
+                source.close();
+            }
+            catch (IOException ex) {
+                System.err.println("Error when closing the original file of " + fileId + ": " + ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Destination of a file that is being restored. The chunks are always written in order, so targets that can't seek
+ * (such as named pipes or streams to the client) can ignore the position.
+ */
+public interface RestoreTarget {
+    /**
+     * Writes the contents of the buffers, which start at the specified position of the file.
+     */
+    void write(ByteBuffer[] buffers, long position) throws IOException;
+
+    /**
+     * Called after the last write, when the whole file has been restored.
+     */
+    void complete(boolean sync) throws IOException;
+
+    /**
+     * Called instead of complete if the restore fails. Writes that are in progress may still finish afterwards.
+     */
+    void abort(String error);
+}
@@ -26,7 +26,7 @@ public class VerifyChunksThread extends Thread {
 
                         VerifyChunkMessage message = new VerifyChunkMessage(Peer.version, Peer.id, key.fileId, key.chunkNumber, Peer.address);
                         ClientThread thread = new ClientThread(randomAddress, message);
-                        Peer.executor.execute(thread);
+                        Peer.dispatch(thread);
                     }
                 }
             }
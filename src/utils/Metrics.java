@@ -0,0 +1,48 @@
+package utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and gauges describing the behaviour of this peer, which are sent to the TestApp together with the rest of
+ * the peer's state. Counters can be incremented by any number of threads without contention.
+ */
+public class Metrics {
+    private static final ConcurrentHashMap<String, LongAdder> countersMap = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongSupplier> gaugesMap = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the counter with the specified name, creating it if needed. Callers should keep the returned counter
+     * instead of looking it up every time.
+     */
+    public static LongAdder counter(String name) {
+        return countersMap.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /**
+     * Registers a value that is read only when a snapshot is taken, such as the size of a queue.
+     */
+    public static void gauge(String name, LongSupplier supplier) {
+        gaugesMap.put(name, supplier);
+    }
+
+    /**
+     * Returns the current value of every counter and gauge, sorted by name.
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+
+        for (Map.Entry<String, LongAdder> entry : countersMap.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+
+        for (Map.Entry<String, LongSupplier> entry : gaugesMap.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+
+        return snapshot;
+    }
+}
@@ -1,11 +1,9 @@
 package utils;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
 public final class Utils {
     // Prevent class from being instantiated
@@ -13,18 +11,34 @@ public final class Utils {
 
     private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
 
-    public static List<byte[]> splitMessage(byte[] message) {
-        List<byte[]> components = new ArrayList<>();
+    /**
+     * Returns the length of the header of a message, which ends with two CRLFs, or -1 if the separator isn't found.
+     * The message is read from its position to its limit, without being copied or modified.
+     */
+    public static int findHeaderLength(ByteBuffer message) {
+        int start = message.position();
 
-        for (int i = 0; i < message.length - 3; ++i) {
-            if (message[i] == 0xD && message[i + 1] == 0xA && message[i + 2] == 0xD && message[i + 3] == 0xA) {
-                components.add(Arrays.copyOfRange(message, 0, i));
-                components.add(Arrays.copyOfRange(message, i + 4, message.length));
-                break;
+        for (int i = start; i < message.limit() - 3; ++i) {
+            if (message.get(i) == 0xD && message.get(i + 1) == 0xA && message.get(i + 2) == 0xD && message.get(i + 3) == 0xA) {
+                return i - start;
             }
         }
 
-        return components;
+        return -1;
+    }
+
+    /**
+     * Decodes the first bytes of a buffer (starting at its position) as a string, reading them directly from the
+     * buffer's backing array if it has one.
+     */
+    public static String decodeString(ByteBuffer buffer, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(buffer.position(), bytes);
+        return new String(bytes);
     }
 
     // Adapted from https://stackoverflow.com/questions/9655181/how-to-convert-a-byte-array-to-a-hex-string-in-java
@@ -38,6 +52,33 @@ public final class Utils {
         return new String(hexChars);
     }
 
+    public static byte[] hexToByteArray(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Hex string has an odd length: " + hex);
+        }
+
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            int high = Character.digit(hex.charAt(i * 2), 16), low = Character.digit(hex.charAt(i * 2 + 1), 16);
+
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hex string: " + hex);
+            }
+
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the SHA-256 hash of the contents of a chunk (from its position to its limit), without modifying it.
+     */
+    public static byte[] calculateChunkHash(ByteBuffer body) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(body.duplicate());
+        return digest.digest();
+    }
+
     public static String calculateFileId(File file) throws NoSuchAlgorithmException {
         /* This function should theoretically never throw a NoSuchAlgorithmException, but the getInstance method
         of MessageDigest needs handling of this exception */
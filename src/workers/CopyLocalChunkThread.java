@@ -0,0 +1,52 @@
+package workers;
+
+import messages.ChunkMessage;
+import protocol.Peer;
+import protocol.RestorePipeline;
+import utils.Utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a chunk of a file that is being restored from the original file, which is still at the path it was backed up
+ * from. The chunk is only used if its contents match the hash recorded when it was backed up, otherwise it is
+ * requested from the other peers.
+ */
+public class CopyLocalChunkThread extends Thread {
+    private final RestorePipeline pipeline;
+    private final int chunkNumber;
+
+    public CopyLocalChunkThread(RestorePipeline pipeline, int chunkNumber) {
+        this.pipeline = pipeline;
+        this.chunkNumber = chunkNumber;
+    }
+
+    @Override
+    public void run() {
+        long position = (long) chunkNumber * Peer.CHUNK_MAX_SIZE;
+        int size = (int) Math.max(0, Math.min(Peer.CHUNK_MAX_SIZE, pipeline.information.size - position));
+        ByteBuffer body = ByteBuffer.allocate(size);
+
+        try {
+            while (body.hasRemaining()) {
+                // The file is shorter than when it was backed up
+                if (pipeline.source.read(body, position + body.position()) == -1) break;
+            }
+            body.flip();
+
+            if (pipeline.information.matchesChunkHash(chunkNumber, Utils.calculateChunkHash(body))) {
+                pipeline.localChunkRead(new ChunkMessage(Peer.version, Peer.id, pipeline.fileId, chunkNumber, body));
+                return;
+            }
+        }
+        catch (Exception ex) {
+            // The original file is closed when the restore finishes
+            if (pipeline.job.isFinished()) return;
+
+            System.err.println("Error when reading chunk " + chunkNumber + " of file " + pipeline.fileId +
+                    " from the original file: " + ex.getMessage());
+        }
+
+        pipeline.localChunkChanged(chunkNumber);
+    }
+}
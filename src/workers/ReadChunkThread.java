@@ -1,97 +1,122 @@
 package workers;
 
 import chord.ChordNode;
-import chord.ChordNodeInfo;
-import chord.ChordTask;
 import jsse.ClientThread;
-import messages.FindSuccessorMessage;
 import messages.PutChunkMessage;
+import protocol.BackupPipeline;
+import protocol.FileInformation;
 import protocol.Peer;
+import utils.Utils;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousFileChannel;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.nio.channels.FileChannel;
 
+/**
+ * Reads the chunks of a file that is being backed up, in order and in large blocks, and sends a PUT_CHUNK message for
+ * each of them. Runs until every chunk that is in the window of the backup has been read. If the sdis.backup.mmap
+ * system property is set to true, the blocks are memory-mapped instead of being read into buffers.
+ */
 public class ReadChunkThread extends Thread {
-    private final AsynchronousFileChannel channel;
-    private final String fileId;
-    private final int chunkNumber, replicationDegree;
-
-    public ReadChunkThread(AsynchronousFileChannel channel, String fileId, int chunkNumber, int replicationDegree) {
-        this.channel = channel;
-        this.fileId = fileId;
-        this.chunkNumber = chunkNumber;
-        this.replicationDegree = replicationDegree;
+    public static final boolean USE_MMAP = Boolean.getBoolean("sdis.backup.mmap");
+
+    private final BackupPipeline pipeline;
+
+    public ReadChunkThread(BackupPipeline pipeline) {
+        this.pipeline = pipeline;
     }
 
     @Override
     public void run() {
-        ByteBuffer buffer = ByteBuffer.allocate(Peer.CHUNK_MAX_SIZE);
-        Future<Integer> future = channel.read(buffer, chunkNumber * Peer.CHUNK_MAX_SIZE);
+        int[] block;
+        while ((block = pipeline.nextBlock()) != null) {
+            int firstChunk = block[0], numBlockChunks = block[1];
+            ByteBuffer buffer;
 
-        try {
-            Integer bytesRead = future.get();
+            try {
+                buffer = readBlock(firstChunk, numBlockChunks);
+            }
+            catch (Exception ex) {
+                System.err.println("Exception when reading chunks " + firstChunk + " to " + (firstChunk + numBlockChunks - 1) +
+                        " of file " + pipeline.fileId + ": " + ex.getMessage());
 
-            if (bytesRead == -1) {
-                bytesRead = 0;
+                for (int chunkNumber = firstChunk; chunkNumber < firstChunk + numBlockChunks; ++chunkNumber) {
+                    pipeline.release(chunkNumber);
+                }
+                continue;
             }
 
-            if (!buffer.hasArray()) {
-                System.err.println("Error: ByteBuffer in ReadChunkThread has no backing array");
-                return;
+            // Only the hashes of the chunks of this block are kept in memory
+            byte[] hashes = new byte[numBlockChunks * FileInformation.HASH_SIZE];
+
+            // Each chunk is sent as a view over the block, without being copied
+            for (int i = 0; i < numBlockChunks; ++i) {
+                int offset = Math.min(i * Peer.CHUNK_MAX_SIZE, buffer.limit());
+                int size = Math.min(pipeline.getChunkSize(firstChunk + i), buffer.limit() - offset);
+
+                sendChunk(firstChunk + i, buffer.slice(offset, size), hashes, i * FileInformation.HASH_SIZE);
             }
 
-            Peer.chunksToReadMap.get(fileId).remove(chunkNumber);
-            if (Peer.chunksToReadMap.get(fileId).isEmpty()) {
-                // All ReadChunk threads have finished writing, can close the channel
-                channel.close();
-                Peer.chunksToReadMap.remove(fileId);
+            pipeline.writeChunkHashes(firstChunk, hashes);
+        }
+    }
+
+    private ByteBuffer readBlock(int firstChunk, int numBlockChunks) throws IOException {
+        FileChannel channel = pipeline.channel;
+        long position = (long) firstChunk * Peer.CHUNK_MAX_SIZE;
+        int blockSize = (int) pipeline.getBlockSize(firstChunk, numBlockChunks);
+
+        if (USE_MMAP) {
+            // Mapping beyond the end of the file would grow it, so the block is limited to the current size
+            blockSize = (int) Math.max(0, Math.min(blockSize, channel.size() - position));
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, blockSize);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                // The file has been truncated in the meantime
+                break;
             }
+        }
+
+        return buffer.flip();
+    }
+
+    private void sendChunk(int chunkNumber, ByteBuffer body, byte[] hashes, int hashOffset) {
+        pipeline.chunkRead(chunkNumber);
 
-            ChordNode chordNode = Peer.state.chordNode;
+        try {
+            // Recorded so that the chunk can later be restored from the original file, if it hasn't changed
+            byte[] hash = Utils.calculateChunkHash(body);
+            System.arraycopy(hash, 0, hashes, hashOffset, FileInformation.HASH_SIZE);
 
             // Calculate chord key for chunk
-            long key = ChordNode.generateKey((fileId + "_" + chunkNumber).getBytes());
-            
-            byte[] body = new byte[bytesRead];
-            System.arraycopy(buffer.array(), 0, body, 0, bytesRead);
-
-            PutChunkMessage putChunkMessage = new PutChunkMessage(Peer.version, Peer.id, fileId, chunkNumber,
-                    replicationDegree, Peer.address, body);
-
-            // key in (self.id, successor.id] -> successor is responsible for the key
-            if (ChordNode.isKeyBetween(key, chordNode.selfInfo.id, chordNode.getSuccessorInfo().id, false, true)) {
-                ClientThread putChunkThread = new ClientThread(chordNode.getSuccessorInfo().address, putChunkMessage);
-                Peer.executor.execute(putChunkThread);
-            }
-            else {
-                FindSuccessorMessage findSuccessorMessage = new FindSuccessorMessage(Peer.version, Peer.id, key, Peer.address);
-                ChordNodeInfo closestPrecedingNode = chordNode.getClosestPrecedingNode(key);
-
-                chordNode.tasksMap.putIfAbsent(key, new ConcurrentLinkedQueue<>());
-                chordNode.tasksMap.get(key).add(new ChordTask() {
-                    @Override
-                    public void performTask(ChordNodeInfo successorInfo) {
+            long key = ChordNode.generateKey((pipeline.fileId + "_" + chunkNumber).getBytes());
+
+            PutChunkMessage putChunkMessage = new PutChunkMessage(Peer.version, Peer.id, pipeline.fileId, chunkNumber,
+                    pipeline.replicationDegree, Peer.address, body);
+
+            Peer.state.chordNode.findSuccessor(key)
+                    .thenAccept(successorInfo -> {
                         try {
                             ClientThread putChunkThread = new ClientThread(successorInfo.address, putChunkMessage);
-                            Peer.executor.execute(putChunkThread);
+                            Peer.dispatch(putChunkThread);
                         }
                         catch (Exception ex) {
                             System.err.println("Exception when attempting to sent PUT_CHUNK message: " + ex.getMessage());
+                            pipeline.release(chunkNumber);
                         }
-                    }
-                });
-
-                ClientThread thread = new ClientThread(closestPrecedingNode.address, findSuccessorMessage);
-                Peer.executor.execute(thread);
-            }
+                    })
+                    .exceptionally(ex -> {
+                        System.err.println("Error when finding successor of chunk " + chunkNumber + ": " + ex.getMessage());
+                        pipeline.release(chunkNumber);
+                        return null;
+                    });
         }
         catch (Exception ex) {
             System.err.println("Exception in ReadChunkThread: " + ex.getMessage());
-            ex.printStackTrace();
+            pipeline.release(chunkNumber);
         }
     }
 }
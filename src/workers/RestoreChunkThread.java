@@ -1,45 +1,43 @@
 package workers;
 
 import messages.ChunkMessage;
-import protocol.Peer;
+import protocol.RestorePipeline;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousFileChannel;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.List;
 
+/**
+ * Writes the chunks of a file that is being restored to its target, in order. Each run of consecutive chunks that have
+ * arrived is written at once. Runs until the next chunk to write hasn't arrived yet.
+ */
 public class RestoreChunkThread extends Thread {
-    private final ChunkMessage message;
+    private final RestorePipeline pipeline;
 
-    public RestoreChunkThread(ChunkMessage message) {
-        this.message = message;
+    public RestoreChunkThread(RestorePipeline pipeline) {
+        this.pipeline = pipeline;
     }
 
     @Override
     public void run() {
-        int offset = Peer.CHUNK_MAX_SIZE * message.chunkNumber;
-        AsynchronousFileChannel channel = Peer.restoredFileChannelMap.get(message.fileId);
+        List<ChunkMessage> run;
+        while ((run = pipeline.nextRun()) != null) {
+            ChunkMessage first = run.get(0);
+            ByteBuffer[] buffers = new ByteBuffer[run.size()];
 
-        ByteBuffer buffer = ByteBuffer.wrap(message.body);
-
-        /* Write contents of the chunk starting at the specified offset (if the file isn't large enough yet, it will
-         * be padded with unspecified data: this is done by the write method of AsynchronousFileChannel) */
-        Future<Integer> future = channel.write(buffer, offset);
-
-        try {
-            future.get();
-            Peer.chunksToRestoreMap.get(message.fileId).remove(message.chunkNumber);
+            for (int i = 0; i < run.size(); ++i) {
+                buffers[i] = pipeline.getRange(run.get(i));
+            }
 
-            if (Peer.chunksToRestoreMap.get(message.fileId).isEmpty()) {
-                // All RestoreChunk threads have finished writing, can close the channel
-                channel.close();
-                Peer.chunksToRestoreMap.remove(message.fileId);
+            try {
+                pipeline.target.write(buffers, pipeline.getTargetPosition(first.chunkNumber));
+                pipeline.runWritten(run);
+            }
+            catch (IOException ex) {
+                pipeline.fail("Error when writing chunks " + first.chunkNumber + " to " + (first.chunkNumber + run.size() - 1) +
+                        " of file " + first.fileId + ": " + ex.getMessage());
+                return;
             }
-        }
-        catch (InterruptedException | ExecutionException | IOException ex) {
-            System.err.println(ex.getMessage());
-            ex.printStackTrace();
         }
     }
 }
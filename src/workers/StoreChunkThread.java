@@ -8,14 +8,11 @@ import protocol.ChunkIdentifier;
 import protocol.ChunkInformation;
 import protocol.Peer;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.CompletableFuture;
 
 public class StoreChunkThread extends Thread {
-    public static final Object lock = new Object();
-
     private final PutChunkMessage message;
 
     public StoreChunkThread(PutChunkMessage message) {
@@ -25,54 +22,64 @@ public class StoreChunkThread extends Thread {
     @Override
     public void run() {
         ChunkIdentifier identifier = new ChunkIdentifier(message.fileId, message.chunkNumber);
+        ChunkInformation information = new ChunkInformation(message.body.remaining(), message.initiatorAddress);
         boolean stored = false;
 
-        // Attempt to store chunk
-        synchronized (lock) {
-            if ((Peer.state.maxDiskSpace == null || Peer.state.getSpaceOccupied() + message.body.length <= Peer.state.maxDiskSpace)
-                && !Peer.state.storedChunksMap.containsKey(identifier)) {
-                // Have enough space to store this chunk and the chunk isn't already stored
+        // Attempt to store chunk, if there is enough space for it and it isn't already stored
+        if (Peer.state.reserveSpace(information.size)) {
+            if (Peer.state.storedChunksMap.putIfAbsent(identifier, information) == null) {
                 stored = true;
-                Peer.state.storedChunksMap.put(identifier,
-                        new ChunkInformation(message.body.length, message.initiatorAddress));
+            }
+            else {
+                Peer.state.releaseSpace(information.size);
             }
         }
 
         if (stored) {
-            // Store chunk in file system
-            String path = "peer" + Peer.id + File.separator + message.fileId + File.separator + message.chunkNumber;
-            File chunkFile = new File(path);
+            CompletableFuture<Void> durable;
 
             try {
-                if (!chunkFile.exists()) {
-                    chunkFile.getParentFile().mkdirs();
-                    chunkFile.createNewFile();
-
-                    FileOutputStream stream = new FileOutputStream(chunkFile);
-                    stream.write(message.body);
-                    stream.close();
-                }
+                // The body is written straight from the buffer the message was received in
+                durable = Peer.chunkStore.put(identifier, message.body);
             }
             catch (IOException ex) {
                 System.err.println("IO exception when storing chunk: " + ex.getMessage());
-                synchronized (lock) {
-                    Peer.state.storedChunksMap.remove(identifier);
-                }
+                Peer.state.removeStoredChunk(identifier, information);
+                Peer.chunkStore.invalidate(identifier);
                 message.forwardToSuccessor(false);
                 return;
             }
 
-            // Send STORED message
-            StoredMessage storedMessage = new StoredMessage(Peer.version, Peer.id, message.fileId, message.chunkNumber, Peer.address);
-            try {
-                ClientThread storedThread = new ClientThread(message.initiatorAddress, storedMessage);
-                Peer.executor.execute(storedThread);
-            }
-            catch (IOException | GeneralSecurityException ex) {
-                System.err.println("Error when sending STORED message: " + ex.getMessage());
-            }
+            // The STORED message is only sent, and the chunk only counted as a replica when the message is forwarded,
+            // once the chunk is durable (right away, unless group commit is enabled)
+            durable.whenComplete((result, ex) -> {
+                if (ex != null) {
+                    System.err.println("Error when syncing chunk " + message.chunkNumber + " of file " + message.fileId + ": " + ex.getMessage());
+                    Peer.state.removeStoredChunk(identifier, information);
+                    Peer.chunkStore.remove(identifier);
+
+                    // Another peer must store the replica instead
+                    message.forwardToSuccessor(false);
+                    return;
+                }
+
+                sendStoredMessage();
+                message.forwardToSuccessor(true);
+            });
+            return;
         }
 
-        message.forwardToSuccessor(stored);
+        message.forwardToSuccessor(false);
+    }
+
+    private void sendStoredMessage() {
+        StoredMessage storedMessage = new StoredMessage(Peer.version, Peer.id, message.fileId, message.chunkNumber, Peer.address);
+        try {
+            ClientThread storedThread = new ClientThread(message.initiatorAddress, storedMessage);
+            Peer.dispatch(storedThread);
+        }
+        catch (IOException | GeneralSecurityException ex) {
+            System.err.println("Error when sending STORED message: " + ex.getMessage());
+        }
     }
 }